@@ -52,7 +52,7 @@
   "
   [ trees ]
   ( let [ ^ZDD z ( ZDDTree/unionTrees trees ) ] ; Pay once the computation of the ZDD...
-    ( fn [ ^ZDDTerm zt ] ( ZDDTree/subtrees z zt ) ) ; ...reuse it multiple times.
+    ( fn [ ^ZDDTerm zt ] ( ZDDTerm/subtrees z zt ) ) ; ...reuse it multiple times.
   )
 )
 
@@ -101,6 +101,34 @@
     ( fn [ ^ZDDNumber n ] ( ZDDNumber/negabinary n z ) ) ; ...possibly apply multiple times over ZDD numbers.
   )
 )
+
+( defn ^long count-tree
+  "Count occurrences of a single tree in a ZDD number, without allocating.
+   This is an higher-order function that yields a proper counting function.
+  "
+  [ ^ZDDTree tree ]
+  ( let [ ^longs xs ( ZDDTree/set tree ) ] ; Compile the tree once...
+    ( fn [ ^ZDDNumber n ] ( ZDDNumber/negabinary n xs ) ) ; ...possibly apply multiple times over ZDD numbers.
+  )
+)
+
+( defn count-all-trees
+  "Count occurrences of many trees in a ZDD number, visiting each digit once.
+   This is an higher-order function that yields a proper counting function, returning the sequence of counts.
+  "
+  [ trees ]
+  ( let [ zs ( into-array ZDD ( map #( ZDDTree/trees ^ZDDTree % ) trees ) ) ] ; Pay the ZDD computations once...
+    ( fn [ ^ZDDNumber n ] ( seq ( ZDDNumber/negabinary n ^"[Lnet.ftod.zcube.zdd.ZDD;" zs ) ) ) ; ...possibly apply multiple times over ZDD numbers.
+  )
+)
+
+( defn p-count-all-trees
+  "Parallel version of count-all-trees."
+  [ trees ]
+  ( let [ zs ( into-array ZDD ( map #( ZDDTree/trees ^ZDDTree % ) trees ) ) ]
+    ( fn [ ^ZDDNumber n ] ( seq ( ZDDNumber/pNegabinary n ^"[Lnet.ftod.zcube.zdd.ZDD;" zs ) ) )
+  )
+)
 
 ;
 ; Bulk operations on sequences of ZDDTerm
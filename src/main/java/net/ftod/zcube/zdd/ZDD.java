@@ -1,5 +1,8 @@
 package net.ftod.zcube.zdd;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 /**
  * <h1>Zero-Suppressed Binary Decision Diagrams</h1>
  * 
@@ -59,7 +62,7 @@ public final class ZDD {
         return (int) (l ^ l >>> 32);
     }
 
-    private static ZDD zdd(final ZDDCacheN nod, final long x, final ZDD b, final ZDD t)
+    static ZDD zdd(final ZDDCacheN nod, final long x, final ZDD b, final ZDD t)
     {
         if (t == BOT) {
             return b;
@@ -104,6 +107,50 @@ public final class ZDD {
         return s;
     }
 
+    /**
+     * Estimated bytes retained by a node : object header, variable, hash, and two references, on a 64-bit virtual machine with compressed references.
+     */
+    public static final long NODE_BYTES = 32L;
+
+    /**
+     * <h3>Number of distinct nodes of a set of roots, {@link #BOT} and {@link #TOP} excluded</h3>
+     * 
+     * <p>
+     * Nodes shared between roots are counted once. Unlike {@link #size(ZDD)}, that counts sets, the number of nodes measures the memory a {@link ZDD} takes.
+     * Nodes are told apart by identity : there being no canonicalizing map, equal nodes built apart are counted, as they are retained, twice.
+     * </p>
+     */
+    public static long nodes(final ZDD... zdds)
+    {
+        final Map<ZDD, ZDD> visited = new IdentityHashMap<ZDD, ZDD>();
+
+        for (final ZDD zdd : zdds) {
+            nodes(visited, zdd);
+        }
+
+        return visited.size();
+    }
+
+    static void nodes(final Map<ZDD, ZDD> visited, final ZDD zdd)
+    {
+        if (zdd == BOT || zdd == TOP || visited.put(zdd, zdd) != null) {
+            return;
+        }
+        nodes(visited, zdd.b);
+        nodes(visited, zdd.t);
+    }
+
+    /**
+     * <h3>Estimated bytes retained by the nodes of a set of roots</h3>
+     * 
+     * @see #nodes(ZDD...)
+     * @see #NODE_BYTES
+     */
+    public static long bytes(final ZDD... zdds)
+    {
+        return NODE_BYTES * nodes(zdds);
+    }
+
     /**
      * <h3>Build a singleton set</h3>
      * 
@@ -133,6 +180,38 @@ public final class ZDD {
         return set(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), xs);
     }
 
+    /**
+     * <h3>Set membership predicate</h3>
+     * 
+     * <p>
+     * Walk down the {@link ZDD} along the elements of the set, without allocating.
+     * </p>
+     * 
+     * @param zdd
+     *            the {@link ZDD} representing a set of sets.
+     * @param xs
+     *            the elements of a set, sorted in increasing order without duplicates.
+     * @return <code>true</code> iff the set is in <code>zdd</code>.
+     */
+    public static boolean member(final ZDD zdd, final long[] xs)
+    {
+        ZDD z = zdd;
+        int i = 0;
+
+        while (z != BOT && z != TOP) {
+            if (i < xs.length && z.x == xs[i]) {
+                z = z.t;
+                ++i;
+            } else if (i < xs.length && z.x > xs[i]) {
+                return false;
+            } else {
+                z = z.b;
+            }
+        }
+
+        return z == TOP && i == xs.length;
+    }
+
     /**
      * <h3>Set inclusion predicate</h3>
      * 
@@ -189,7 +268,7 @@ public final class ZDD {
         return included;
     }
 
-    private static boolean topIncluded(final ZDD zdd)
+    static boolean topIncluded(final ZDD zdd)
     {
         if (zdd == BOT) {
             return false;
@@ -592,6 +671,65 @@ public final class ZDD {
         return zdd;
     }
 
+    /**
+     * The cross union of two {@link ZDD}, restricted to the sets of at most <code>k</code> elements.
+     */
+    static ZDD crossUnion(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheI _crk, final ZDD zdd1, final ZDD zdd2, final int k)
+    {
+        if (k == Integer.MAX_VALUE) {
+            return crossUnion(_nod, _equ, _cru, _uni, zdd1, zdd2);
+        }
+
+        return crossUnion(_nod, _equ, _uni, _crk, zdd1, zdd2, k);
+    }
+
+    private static ZDD crossUnion(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _uni, final ZDDCacheI _crk, final ZDD zdd1, final ZDD zdd2, final int k)
+    {
+        if (zdd1 == BOT) {
+            return BOT;
+        }
+
+        if (zdd2 == BOT) {
+            return BOT;
+        }
+
+        if (zdd1 == TOP && zdd2 == TOP) {
+            return TOP;
+        }
+
+        if (k == 0) {
+            return topIncluded(zdd1) && topIncluded(zdd2) ? TOP : BOT;
+        }
+
+        ZDD zdd = _crk.get(zdd1, zdd2, k);
+
+        if (zdd == null) {
+
+            if (zdd1 == TOP) {
+                zdd = zdd(_nod, zdd2.x, crossUnion(_nod, _equ, _uni, _crk, zdd1, zdd2.b, k), crossUnion(_nod, _equ, _uni, _crk, zdd1, zdd2.t, k - 1));
+            } else if (zdd2 == TOP) {
+                zdd = zdd(_nod, zdd1.x, crossUnion(_nod, _equ, _uni, _crk, zdd1.b, zdd2, k), crossUnion(_nod, _equ, _uni, _crk, zdd1.t, zdd2, k - 1));
+            } else {
+
+                final long x1 = zdd1.x;
+                final long x2 = zdd2.x;
+
+                if (x1 < x2) {
+                    zdd = zdd(_nod, x1, crossUnion(_nod, _equ, _uni, _crk, zdd1.b, zdd2, k), crossUnion(_nod, _equ, _uni, _crk, zdd1.t, zdd2, k - 1));
+                } else if (x1 > x2) {
+                    zdd = zdd(_nod, x2, crossUnion(_nod, _equ, _uni, _crk, zdd1, zdd2.b, k), crossUnion(_nod, _equ, _uni, _crk, zdd1, zdd2.t, k - 1));
+                } else {
+                    zdd = zdd(_nod, x1, crossUnion(_nod, _equ, _uni, _crk, zdd1.b, zdd2.b, k), union(_nod, _equ, _uni, crossUnion(_nod, _equ, _uni, _crk, zdd1.t, zdd2.t, k - 1), union(_nod, _equ, _uni, crossUnion(_nod, _equ, _uni, _crk, zdd1.t,
+                            zdd2.b, k - 1), crossUnion(_nod, _equ, _uni, _crk, zdd1.b, zdd2.t, k - 1))));
+                }
+            }
+
+            _crk.put(zdd1, zdd2, k, zdd);
+        }
+
+        return zdd;
+    }
+
     static ZDD set(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final long[] xs)
     {
         final ZDD[] zdd = new ZDD[xs.length];
@@ -704,6 +842,67 @@ public final class ZDD {
         return zdd;
     }
 
+    /**
+     * The sets of <code>zdd</code> holding element <code>x</code>, with <code>x</code> removed.
+     */
+    static ZDD onset(final ZDDCacheN _nod, final ZDDCacheO _ons, final ZDD zdd, final long x)
+    {
+        return onset(_nod, _ons, zdd, singleton(_nod, x));
+    }
+
+    private static ZDD onset(final ZDDCacheN _nod, final ZDDCacheO _ons, final ZDD zdd, final ZDD x)
+    {
+        if (zdd == BOT || zdd == TOP) {
+            return BOT;
+        }
+
+        if (zdd.x > x.x) {
+            return BOT;
+        }
+
+        if (zdd.x == x.x) {
+            return zdd.t;
+        }
+
+        ZDD onset = _ons.get(zdd, x);
+
+        if (onset == null) {
+            onset = zdd(_nod, zdd.x, onset(_nod, _ons, zdd.b, x), onset(_nod, _ons, zdd.t, x));
+            _ons.put(zdd, x, onset);
+        }
+
+        return onset;
+    }
+
+    /**
+     * The sets of <code>zdd</code> intersected with the set of elements <code>xs</code>, itself given as a {@link ZDD} holding a single set.
+     */
+    static ZDD project(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _uni, final ZDDCacheO _prj, final ZDD zdd, final ZDD xs)
+    {
+        if (zdd == BOT || zdd == TOP) {
+            return zdd;
+        }
+
+        ZDD _xs = xs;
+
+        while (_xs != TOP && _xs.x < zdd.x) {
+            _xs = _xs.t;
+        }
+
+        ZDD project = _prj.get(zdd, _xs);
+
+        if (project == null) {
+            if (_xs != TOP && _xs.x == zdd.x) {
+                project = zdd(_nod, zdd.x, project(_nod, _equ, _uni, _prj, zdd.b, _xs.t), project(_nod, _equ, _uni, _prj, zdd.t, _xs.t));
+            } else {
+                project = union(_nod, _equ, _uni, project(_nod, _equ, _uni, _prj, zdd.b, _xs), project(_nod, _equ, _uni, _prj, zdd.t, _xs));
+            }
+            _prj.put(zdd, _xs, project);
+        }
+
+        return project;
+    }
+
     static boolean equals(final ZDDCacheP _equ, final ZDD zdd1, final ZDD zdd2)
     {
         if (zdd1 == zdd2) {
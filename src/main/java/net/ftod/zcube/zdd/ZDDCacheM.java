@@ -0,0 +1,51 @@
+package net.ftod.zcube.zdd;
+
+import static net.ftod.zcube.zdd.ZDD.CACHE_MAX;
+import static net.ftod.zcube.zdd.ZDD.CACHE_SIZE;
+
+/**
+ * <h3>Caching binary operations into numbers</h3>
+ * 
+ * <p>
+ * Small <b>mutable</b> cache for binary operations on {@link ZDD} yielding a {@link ZDDNumber}, as the multiplication of families of sets. Used to speed up
+ * recursive operations.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+final class ZDDCacheM {
+
+    private final ZDD[] _zdd1 = new ZDD[CACHE_SIZE];
+    private final ZDD[] _zdd2 = new ZDD[CACHE_SIZE];
+    private final ZDDNumber[] _zn = new ZDDNumber[CACHE_SIZE];
+
+    private static int index(final ZDD zdd1, final ZDD zdd2)
+    {
+        return 1 + 31 * (zdd1.h + 31 * zdd2.h) & CACHE_MAX;
+    }
+
+    ZDDCacheM() {
+        super();
+    }
+
+    ZDDNumber get(final ZDD zdd1, final ZDD zdd2)
+    {
+        final int index = index(zdd1, zdd2);
+
+        if (zdd1 != _zdd1[index] || zdd2 != _zdd2[index]) {
+            return null;
+        }
+
+        return _zn[index];
+    }
+
+    void put(final ZDD zdd1, final ZDD zdd2, final ZDDNumber zn)
+    {
+        final int index = index(zdd1, zdd2);
+
+        _zdd1[index] = zdd1;
+        _zdd2[index] = zdd2;
+        _zn[index] = zn;
+    }
+
+}
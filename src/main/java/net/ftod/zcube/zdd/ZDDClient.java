@@ -0,0 +1,110 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * <h1>Blocking client of a {@link ZDDServer}</h1>
+ *
+ * <p>
+ * Ingested terms are buffered and only sent with the next query, or on {@link #flush()}, so that a stream of terms followed by a query is pipelined.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDClient implements Closeable {
+
+    private final Socket socket;
+    private final DataOutputStream dos;
+    private final DataInputStream dis;
+
+    public ZDDClient(final InetSocketAddress address) throws IOException {
+        super();
+        this.socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address);
+        this.dos = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+        this.dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+    }
+
+    public void add(final ZDDTerm zt) throws IOException
+    {
+        dos.writeByte(ZDDServer.INGEST);
+        zt.write(dos);
+    }
+
+    public void add(final Iterable<ZDDTerm> i) throws IOException
+    {
+        for (final ZDDTerm zt : i) {
+            add(zt);
+        }
+    }
+
+    /**
+     * <h3>Count the trees of a {@link ZDDTree} in the last snapshot</h3>
+     */
+    public long count(final ZDDTree t) throws IOException
+    {
+        dos.writeByte(ZDDServer.COUNT);
+        ZDDTree.write(t, dos);
+        dos.flush();
+
+        return dis.readLong();
+    }
+
+    /**
+     * <h3>Count many {@link ZDDTree} in the last snapshot, in one request</h3>
+     */
+    public long[] count(final ZDDTree[] ts) throws IOException
+    {
+        dos.writeByte(ZDDServer.COUNTS);
+        dos.writeInt(ts.length);
+        for (final ZDDTree t : ts) {
+            ZDDTree.write(t, dos);
+        }
+        dos.flush();
+
+        final long[] ls = new long[ts.length];
+
+        for (int i = 0; i < ls.length; ++i) {
+            ls[i] = dis.readLong();
+        }
+
+        return ls;
+    }
+
+    /**
+     * <h3>Publish a new snapshot, including the terms sent before</h3>
+     *
+     * @return the number of sets counted in the snapshot.
+     */
+    public long publish() throws IOException
+    {
+        dos.writeByte(ZDDServer.PUBLISH);
+        dos.flush();
+
+        return dis.readLong();
+    }
+
+    public void flush() throws IOException
+    {
+        dos.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            dos.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+}
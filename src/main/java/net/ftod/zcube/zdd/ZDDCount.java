@@ -0,0 +1,29 @@
+package net.ftod.zcube.zdd;
+
+import java.util.Arrays;
+
+/**
+ * <h1>A set and its count</h1>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDCount {
+
+    /**
+     * The elements of the set, sorted in increasing order.
+     */
+    public final long[] set;
+    public final long count;
+
+    ZDDCount(final long[] set, final long count) {
+        super();
+        this.set = set;
+        this.count = count;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new StringBuilder().append("( count ").append(Arrays.toString(set)).append(' ').append(count).append(" )").toString();
+    }
+}
@@ -0,0 +1,233 @@
+package net.ftod.zcube.zdd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h1>Long-lived accumulator of {@link ZDDTerm} publishing snapshots</h1>
+ *
+ * <p>
+ * Terms are added from any number of threads into a pool of partial sums, as {@link ZDDNumber#pSumSubtrees(Iterable)} does. The partial sums are
+ * periodically drained into a {@link ZDDNumber} snapshot, published through an {@link AtomicReference}. Since {@link ZDDNumber} is immutable, readers get the
+ * last snapshot without ever blocking, nor being blocked by, the writers. Terms added since the last publication are not visible yet.
+ * </p>
+ * <p>
+ * A publication that fails once the partial sums are drained loses their terms : the failure is kept, and thrown back by {@link #add(ZDDTerm)},
+ * {@link #snapshot()}, {@link #publish()} and {@link #close()} from then on, wrapped in an {@link IllegalStateException}. A periodic publication that fails
+ * stops the later ones.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDCube {
+
+    private static final int PROCESSOR_SPREAD = 8;
+
+    private final BlockingQueue<ZDDNumber> zns;
+    private final int sums;
+    private final AtomicReference<ZDDNumber> snapshot;
+    private final ScheduledExecutorService publisher;
+    private volatile Throwable failure = null;
+
+    /**
+     * A cube published only on demand, by {@link #publish()}.
+     */
+    public ZDDCube() {
+        this(0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A cube published every <code>period</code>, or only on demand if the period is not positive.
+     */
+    public ZDDCube(final long period, final TimeUnit unit) {
+        this(ZDDNumber.ZERO, period, unit);
+    }
+
+    /**
+     * A cube resuming from a snapshot, as loaded by {@link ZDDSnapshot#number()}.
+     */
+    public ZDDCube(final ZDDNumber zn, final long period, final TimeUnit unit) {
+        super();
+
+        snapshot = new AtomicReference<ZDDNumber>(zn);
+
+        sums = PROCESSOR_SPREAD * Runtime.getRuntime().availableProcessors();
+        zns = new ArrayBlockingQueue<ZDDNumber>(sums);
+
+        for (int j = 0; j < sums; ++j) {
+            zns.offer(ZDDNumber.ZERO);
+        }
+
+        if (period > 0L) {
+            publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "zcube-publisher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            publisher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        publish();
+                    } catch (final Throwable t) {
+                        if (failure == null) {
+                            failure = t;
+                        }
+                        // Cancels the later publications.
+                        throw new RuntimeException(t);
+                    }
+                }
+            }, period, period, unit);
+        } else {
+            publisher = null;
+        }
+    }
+
+    /**
+     * <h3>Add the subtrees of a term</h3>
+     *
+     * <p>
+     * Safe to call from many threads at once, each one working on its own partial sum.
+     * </p>
+     */
+    public void add(final ZDDTerm zt)
+    {
+        failed();
+
+        final ZDDNumber zn = take();
+
+        ZDDNumber sum = zn;
+
+        try {
+            sum = ZDDNumber.addSubtrees(zt, zn);
+        } finally {
+            put(sum);
+        }
+    }
+
+    public void add(final Iterable<ZDDTerm> i)
+    {
+        for (final ZDDTerm zt : i) {
+            add(zt);
+        }
+    }
+
+    /**
+     * <h3>The last published snapshot</h3>
+     */
+    public ZDDNumber snapshot()
+    {
+        failed();
+
+        return snapshot.get();
+    }
+
+    /**
+     * <h3>Publish a new snapshot</h3>
+     *
+     * <p>
+     * All the partial sums are taken, waiting for the writers holding one to finish their term, before any is put back as zero : the new snapshot includes
+     * every term whose {@link #add(ZDDTerm)} returned before the publication started. Writers wait meanwhile. Interrupted while waiting, the publication
+     * puts back the partial sums it took, and fails without losing any.
+     * </p>
+     *
+     * @return the new snapshot.
+     */
+    public synchronized ZDDNumber publish()
+    {
+        failed();
+
+        final List<ZDDNumber> taken = new ArrayList<ZDDNumber>(sums);
+
+        try {
+            for (int j = 0; j < sums; ++j) {
+                taken.add(take());
+            }
+        } catch (final RuntimeException e) {
+            for (final ZDDNumber zn : taken) {
+                put(zn);
+            }
+            throw e;
+        }
+
+        for (int j = 0; j < sums; ++j) {
+            put(ZDDNumber.ZERO);
+        }
+
+        try {
+            final List<ZDDNumber> drained = new ArrayList<ZDDNumber>(sums + 1);
+
+            drained.add(snapshot.get());
+
+            for (final ZDDNumber zn : taken) {
+                if (zn != ZDDNumber.ZERO) {
+                    drained.add(zn);
+                }
+            }
+
+            final ZDDNumber zn = drained.size() > 1 ? ZDDNumber.pSum(drained) : drained.get(0);
+
+            snapshot.set(zn);
+
+            return zn;
+        } catch (final RuntimeException e) {
+            failure = e;
+            throw e;
+        } catch (final Error e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    /**
+     * <h3>Stop the periodic publication, and publish the terms added so far</h3>
+     */
+    public ZDDNumber close()
+    {
+        if (publisher != null) {
+            ZDDNumber.awaitTermination(publisher);
+        }
+
+        return publish();
+    }
+
+    private void failed()
+    {
+        final Throwable t = failure;
+
+        if (t != null) {
+            throw new IllegalStateException("Publication failed", t);
+        }
+    }
+
+    private ZDDNumber take()
+    {
+        try {
+            return zns.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Put back a partial sum, in the room left by a {@link #take()} : this never waits, and an interrupt cannot lose the sum.
+     */
+    private void put(final ZDDNumber zn)
+    {
+        zns.offer(zn);
+    }
+
+}
@@ -0,0 +1,42 @@
+package net.ftod.zcube.zdd;
+
+/**
+ * <h3>Index of a filter over sets of subtrees</h3>
+ * 
+ * <p>
+ * The smallest element of every non-empty set of a {@link ZDD} is a node on the chain of else branches from its root. A term none of whose tree nodes is on that
+ * chain has no subtree in the filter, except for the empty tree, and can be rejected without computing its subtrees.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+final class ZDDFilter {
+
+    final ZDD zdd;
+
+    private final ZDDMapL heads = new ZDDMapL();
+    private final boolean top;
+
+    ZDDFilter(final ZDD zdd) {
+        super();
+        this.zdd = zdd;
+
+        ZDD z = zdd;
+
+        while (z != ZDD.BOT && z != ZDD.TOP) {
+            heads.put(z.x, 1L);
+            z = z.b;
+        }
+
+        this.top = z == ZDD.TOP;
+    }
+
+    /**
+     * Whether the subtrees of the term may meet the filter.
+     */
+    boolean accepts(final ZDDTerm zt)
+    {
+        return top || zt.t.meets(heads);
+    }
+
+}
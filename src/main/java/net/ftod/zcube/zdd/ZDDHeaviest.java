@@ -0,0 +1,167 @@
+package net.ftod.zcube.zdd;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * <h3>Best-first search of the sets with the largest counts in a {@link ZDDNumber}</h3>
+ * 
+ * <p>
+ * The number is first converted to a {@link ZDDLong}, optionally restricted to a filter, whose leaves hold the count of the sets reaching them. The largest
+ * leaf reachable from each node bounds the count of every set below it, and is computed once per node. A search state is a node along with the elements
+ * included on the way to it, its bound that of the node : states are expanded by decreasing bound, so that a complete set coming out of the queue outweighs
+ * all the sets still to be found. Since some child of a node always reaches the bound of the node, each set found costs a number of expansions proportional
+ * to its depth, not to the number of sets.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+final class ZDDHeaviest {
+
+    /**
+     * The elements included so far, most recent first.
+     */
+    private static final class Elements {
+
+        final long x;
+        final Elements next;
+        final int size;
+
+        Elements(final long x, final Elements next) {
+            super();
+            this.x = x;
+            this.next = next;
+            this.size = next == null ? 1 : next.size + 1;
+        }
+
+        static int size(final Elements elements)
+        {
+            return elements == null ? 0 : elements.size;
+        }
+
+        static long[] set(final Elements elements)
+        {
+            final long[] set = new long[size(elements)];
+
+            int i = set.length;
+
+            for (Elements e = elements; e != null; e = e.next) {
+                set[--i] = e.x;
+            }
+
+            return set;
+        }
+    }
+
+    private static final class State {
+
+        final ZDDLong node;
+        final Elements elements;
+        final long bound;
+
+        State(final ZDDLong node, final Elements elements, final long bound) {
+            super();
+            this.node = node;
+            this.elements = elements;
+            this.bound = bound;
+        }
+
+        boolean complete()
+        {
+            return node.leaf();
+        }
+    }
+
+    /**
+     * By decreasing bound, ties going to complete states, then to deeper ones.
+     */
+    private static final Comparator<State> HEAVIEST_FIRST = new Comparator<State>() {
+        @Override
+        public int compare(final State s1, final State s2)
+        {
+            if (s1.bound != s2.bound) {
+                return s1.bound > s2.bound ? -1 : 1;
+            }
+            if (s1.complete() != s2.complete()) {
+                return s1.complete() ? -1 : 1;
+            }
+            final int d1 = Elements.size(s1.elements);
+            final int d2 = Elements.size(s2.elements);
+            return d1 == d2 ? 0 : d1 > d2 ? -1 : 1;
+        }
+    };
+
+    private ZDDHeaviest() {
+        super();
+    }
+
+    /**
+     * @param filter
+     *            the {@link ZDD} restricting the sets searched, or <code>null</code> for no restriction.
+     */
+    static List<ZDDCount> heaviest(final ZDDNumber zn, final ZDD filter, final int k)
+    {
+        final List<ZDDCount> heaviest = new ArrayList<ZDDCount>(Math.max(0, Math.min(k, 1024)));
+
+        if (k <= 0) {
+            return heaviest;
+        }
+
+        final ZDDLong z = filter == null ? ZDDLong.zddLong(zn) : ZDDLong.filter(ZDDLong.zddLong(zn), filter);
+        final Map<ZDDLong, Long> _max = new IdentityHashMap<ZDDLong, Long>();
+        final PriorityQueue<State> queue = new PriorityQueue<State>(64, HEAVIEST_FIRST);
+
+        offer(queue, _max, z, null);
+
+        while (heaviest.size() < k && !queue.isEmpty()) {
+
+            final State s = queue.poll();
+
+            if (s.complete()) {
+                heaviest.add(new ZDDCount(Elements.set(s.elements), s.bound));
+                continue;
+            }
+
+            offer(queue, _max, s.node.b, s.elements);
+            offer(queue, _max, s.node.t, new Elements(s.node.x, s.elements));
+        }
+
+        return heaviest;
+    }
+
+    private static void offer(final PriorityQueue<State> queue, final Map<ZDDLong, Long> _max, final ZDDLong node, final Elements elements)
+    {
+        if (node == ZDDLong.ZERO) {
+            return;
+        }
+
+        queue.add(new State(node, elements, max(_max, node)));
+    }
+
+    /**
+     * The largest count held by a leaf below a node.
+     */
+    private static long max(final Map<ZDDLong, Long> _max, final ZDDLong z)
+    {
+        if (z.leaf()) {
+            return z.l;
+        }
+
+        final Long cached = _max.get(z);
+
+        if (cached != null) {
+            return cached.longValue();
+        }
+
+        final long m = Math.max(max(_max, z.b), max(_max, z.t));
+
+        _max.put(z, m);
+
+        return m;
+    }
+
+}
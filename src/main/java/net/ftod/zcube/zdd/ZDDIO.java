@@ -0,0 +1,77 @@
+package net.ftod.zcube.zdd;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <h3>Variable-length encoding of integers</h3>
+ * 
+ * <p>
+ * Unsigned integers are written seven bits at a time, low-order groups first, the high bit of each byte flagging a continuation. Signed integers are first
+ * <em>zigzag</em> encoded so that small magnitudes, positive or negative, take few bytes.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+final class ZDDIO {
+
+    private ZDDIO() {
+        super();
+    }
+
+    static void writeVarLong(final DataOutput dos, final long l) throws IOException
+    {
+        long v = l;
+
+        while ((v & ~0x7FL) != 0L) {
+            dos.writeByte((int) (v & 0x7FL | 0x80L));
+            v >>>= 7;
+        }
+
+        dos.writeByte((int) v);
+    }
+
+    static long readVarLong(final DataInput dis) throws IOException
+    {
+        long l = 0L;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = dis.readUnsignedByte();
+            l |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return l;
+            }
+        }
+
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    static void writeVarInt(final DataOutput dos, final int i) throws IOException
+    {
+        writeVarLong(dos, i & 0xFFFFFFFFL);
+    }
+
+    static int readVarInt(final DataInput dis) throws IOException
+    {
+        final long l = readVarLong(dis);
+
+        if (l >>> 32 != 0L) {
+            throw new IOException("Malformed variable-length integer");
+        }
+
+        return (int) l;
+    }
+
+    static void writeZigZag(final DataOutput dos, final long l) throws IOException
+    {
+        writeVarLong(dos, l << 1 ^ l >> 63);
+    }
+
+    static long readZigZag(final DataInput dis) throws IOException
+    {
+        final long l = readVarLong(dis);
+        return l >>> 1 ^ -(l & 1L);
+    }
+
+}
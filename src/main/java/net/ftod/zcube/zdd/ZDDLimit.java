@@ -0,0 +1,92 @@
+package net.ftod.zcube.zdd;
+
+/**
+ * <h1>Bounds on the subtrees generated by a tree</h1>
+ * 
+ * <p>
+ * The subtrees of a tree crossing many dimensions are exponentially many. A limit restricts the generation to the subtrees having at most a number of nodes,
+ * at most a depth, and involving at most a number of the dimensions crossed, much as grouping sets restrict a <code>CUBE</code>.
+ * </p>
+ * <p>
+ * A dimension is an operand of a cross, or of a nested cross, contributing a non empty part to the subtree. A cross nested below a path node counts its
+ * operands as the dimensions, the node itself counting as one only when no such cross contributes.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDLimit {
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * No limit at all.
+     */
+    public static final ZDDLimit NONE = new ZDDLimit(UNBOUNDED, UNBOUNDED, UNBOUNDED);
+
+    public final int nodes;
+    public final int depth;
+    public final int dimensions;
+
+    private ZDDLimit(final int nodes, final int depth, final int dimensions) {
+        super();
+        this.nodes = nodes;
+        this.depth = depth;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * <h3>Limit the generated subtrees</h3>
+     * 
+     * @param nodes
+     *            the maximum number of nodes of a subtree, or {@link #UNBOUNDED}.
+     * @param depth
+     *            the maximum depth of a subtree, or {@link #UNBOUNDED}.
+     * @param dimensions
+     *            the maximum number of crossed dimensions involved in a subtree, or {@link #UNBOUNDED}.
+     */
+    public static ZDDLimit limit(final int nodes, final int depth, final int dimensions)
+    {
+        if (nodes < 0 || depth < 0 || dimensions < 0) {
+            throw new IllegalArgumentException("Negative limit");
+        }
+
+        return new ZDDLimit(nodes, depth, dimensions);
+    }
+
+    public static ZDDLimit nodes(final int nodes)
+    {
+        return limit(nodes, UNBOUNDED, UNBOUNDED);
+    }
+
+    public static ZDDLimit depth(final int depth)
+    {
+        return limit(UNBOUNDED, depth, UNBOUNDED);
+    }
+
+    public static ZDDLimit dimensions(final int dimensions)
+    {
+        return limit(UNBOUNDED, UNBOUNDED, dimensions);
+    }
+
+    /**
+     * Number of dimension grades tracked while generating subtrees.
+     */
+    int grades()
+    {
+        return dimensions == UNBOUNDED ? 1 : dimensions + 1;
+    }
+
+    /**
+     * The bound left below a node.
+     */
+    static int below(final int bound)
+    {
+        return bound == UNBOUNDED ? UNBOUNDED : bound - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new StringBuilder().append("( limit ").append(nodes).append(' ').append(depth).append(' ').append(dimensions).append(" )").toString();
+    }
+}
@@ -0,0 +1,465 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>Segmented write-ahead log of {@link ZDDTerm}</h1>
+ *
+ * <p>
+ * Terms are appended to an in-memory batch, and a background thread writes and <code>fsync</code>s the batch every few milliseconds : a single
+ * <code>fsync</code> commits all the terms appended meanwhile. {@link #append(ZDDTerm)} never waits for the disk, {@link #sync(long)} waits for the commit
+ * covering a term.
+ * </p>
+ * <p>
+ * The log is a directory of numbered segments, a new one being started when the current one grows past a size, on {@link #roll()}, and on each opening. Each
+ * record holds the length and the CRC of a term as written by {@link ZDDTerm#write(DataOutputStream)}, so that recovery stops cleanly at a torn write. The
+ * directory is forced to the disk once a segment is created, so that the <code>fsync</code> of its terms is not lost with its directory entry.
+ * </p>
+ * <p>
+ * A log kept alongside a {@link ZDDCube} is fed through {@link #add(ZDDTerm, ZDDCube)}, that appends each term and adds it to the cube as one step, and
+ * checkpointed through {@link #checkpoint(ZDDCube, File)}, that waits for the steps under way and holds the new ones while it rolls the log and publishes the
+ * cube. The snapshot then covers exactly the segments before the one it marks, which are released, and {@link #recover(File, long, ZDDCube)} replays from
+ * that segment on. Terms appended or added by other means are not covered by that contract.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDLog implements Closeable {
+
+    /**
+     * Default size, in bytes, past which a new segment is started.
+     */
+    public static final long SEGMENT = 64L << 20;
+    /**
+     * Default delay, in milliseconds, between group commits.
+     */
+    public static final long COMMIT = 5L;
+
+    private static final String SUFFIX = ".wal";
+
+    private final File directory;
+    private final long segmentSize;
+    private final long commit;
+    private final Object io = new Object();
+    private final Thread committer;
+    private final ReadWriteLock fence = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private long segment;
+    private long segmentLength;
+
+    private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private long appended = 0L;
+    private long durable = 0L;
+    private boolean requested = false;
+    private boolean open = true;
+    private IOException failure = null;
+
+    public ZDDLog(final File directory) throws IOException {
+        this(directory, SEGMENT, COMMIT);
+    }
+
+    /**
+     * Open a log, starting a new segment after the existing ones.
+     *
+     * @param segmentSize
+     *            the size in bytes past which a new segment is started.
+     * @param commit
+     *            the delay in milliseconds between group commits.
+     */
+    public ZDDLog(final File directory, final long segmentSize, final long commit) throws IOException {
+        super();
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commit = Math.max(1L, commit);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        final long[] segments = segments(directory);
+
+        open(segments.length == 0 ? 0L : segments[segments.length - 1] + 1L);
+
+        committer = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                commitLoop();
+            }
+        }, "zcube-log");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    private void open(final long s) throws IOException
+    {
+        channel = FileChannel.open(file(directory, s).toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ZDDSnapshot.force(directory);
+        segment = s;
+        segmentLength = 0L;
+    }
+
+    private static File file(final File directory, final long segment)
+    {
+        return new File(directory, String.format("%020d", Long.valueOf(segment)) + SUFFIX);
+    }
+
+    /**
+     * The numbers of the segments of a log, in increasing order.
+     */
+    static long[] segments(final File directory)
+    {
+        final String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name)
+            {
+                return name.endsWith(SUFFIX);
+            }
+        });
+
+        if (names == null) {
+            return new long[0];
+        }
+
+        final long[] segments = new long[names.length];
+
+        for (int i = 0; i < names.length; ++i) {
+            segments[i] = Long.parseLong(names[i].substring(0, names[i].length() - SUFFIX.length()));
+        }
+
+        Arrays.sort(segments);
+
+        return segments;
+    }
+
+    /**
+     * <h3>Append a term</h3>
+     *
+     * @return the sequence number of the term, to be passed to {@link #sync(long)}.
+     */
+    public long append(final ZDDTerm zt) throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+
+        zt.write(dos);
+        dos.flush();
+
+        final byte[] bytes = baos.toByteArray();
+        final CRC32 crc = new CRC32();
+
+        crc.update(bytes, 0, bytes.length);
+
+        synchronized (this) {
+            if (!open) {
+                throw new IOException("Log closed");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            final DataOutputStream record = new DataOutputStream(batch);
+            record.writeInt(bytes.length);
+            record.writeInt((int) crc.getValue());
+            record.write(bytes);
+            return ++appended;
+        }
+    }
+
+    /**
+     * <h3>Append a term, and add it to a cube</h3>
+     *
+     * <p>
+     * Safe to call from many threads at once. A {@link #checkpoint(ZDDCube, File)} sees either both the append and the add, or neither.
+     * </p>
+     *
+     * @return the sequence number of the term, to be passed to {@link #sync(long)}.
+     */
+    public long add(final ZDDTerm zt, final ZDDCube cube) throws IOException
+    {
+        fence.readLock().lock();
+
+        try {
+            final long sequence = append(zt);
+            cube.add(zt);
+            return sequence;
+        } finally {
+            fence.readLock().unlock();
+        }
+    }
+
+    /**
+     * <h3>Checkpoint a cube fed through {@link #add(ZDDTerm, ZDDCube)}</h3>
+     *
+     * <p>
+     * Holding the new adds, roll the log and publish the cube. Then replace the snapshot with the one published, marked with the new segment, and release the
+     * segments before it.
+     * </p>
+     *
+     * @return the segment to replay from, along with the snapshot.
+     */
+    public long checkpoint(final ZDDCube cube, final File snapshot) throws IOException
+    {
+        final long s;
+        final ZDDNumber zn;
+
+        fence.writeLock().lock();
+
+        try {
+            s = roll();
+            zn = cube.publish();
+        } finally {
+            fence.writeLock().unlock();
+        }
+
+        ZDDSnapshot.replace(zn, s, snapshot);
+        release(s);
+
+        return s;
+    }
+
+    /**
+     * <h3>Wait for a term to be durable</h3>
+     */
+    public void sync(final long sequence) throws IOException
+    {
+        synchronized (this) {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                requested = true;
+                notifyAll();
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * <h3>Wait for all the terms appended so far to be durable</h3>
+     */
+    public void sync() throws IOException
+    {
+        final long sequence;
+
+        synchronized (this) {
+            sequence = appended;
+        }
+
+        sync(sequence);
+    }
+
+    /**
+     * <h3>Commit, and start a new segment</h3>
+     *
+     * @return the number of the new segment : the terms appended from now on go to it, or to later segments.
+     */
+    public long roll() throws IOException
+    {
+        synchronized (io) {
+            commit();
+            channel.close();
+            open(segment + 1L);
+            return segment;
+        }
+    }
+
+    /**
+     * <h3>Delete the segments before a segment</h3>
+     */
+    public void release(final long before)
+    {
+        for (final long s : segments(directory)) {
+            if (s < before) {
+                file(directory, s).delete();
+            }
+        }
+    }
+
+    private void commitLoop()
+    {
+        for (;;) {
+            synchronized (this) {
+                if (open && !requested) {
+                    try {
+                        wait(commit);
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+                requested = false;
+            }
+
+            try {
+                commit();
+            } catch (final IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write and force the batch, then flag its terms durable.
+     */
+    private void commit() throws IOException
+    {
+        synchronized (io) {
+
+            final byte[] bytes;
+            final long sequence;
+
+            synchronized (this) {
+                bytes = batch.toByteArray();
+                batch = new ByteArrayOutputStream();
+                sequence = appended;
+            }
+
+            if (bytes.length > 0) {
+
+                final ByteBuffer bb = ByteBuffer.wrap(bytes);
+
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+
+                channel.force(false);
+                segmentLength += bytes.length;
+
+                if (segmentLength >= segmentSize) {
+                    channel.close();
+                    open(segment + 1L);
+                }
+            }
+
+            synchronized (this) {
+                durable = sequence;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * <h3>Commit the terms appended so far, and close the log</h3>
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this) {
+            open = false;
+            notifyAll();
+        }
+
+        try {
+            committer.join();
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        synchronized (io) {
+            try {
+                commit();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * <h3>Replay a log into a cube</h3>
+     *
+     * <p>
+     * Replay the terms of the segments from a given one on, stopping each segment at its first incomplete or corrupt record.
+     * </p>
+     *
+     * @param segment
+     *            the first segment to replay, as returned by {@link #roll()} before the last snapshot, or zero.
+     * @return the number of terms replayed.
+     */
+    public static long recover(final File directory, final long segment, final ZDDCube cube) throws IOException
+    {
+        long n = 0L;
+
+        for (final long s : segments(directory)) {
+
+            if (s < segment) {
+                continue;
+            }
+
+            final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file(directory, s)), 262144));
+
+            try {
+                for (;;) {
+                    final byte[] bytes = record(dis);
+                    if (bytes == null) {
+                        break;
+                    }
+                    cube.add(ZDDTerm.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+                    ++n;
+                }
+            } finally {
+                dis.close();
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * The next complete and valid record, or <code>null</code>.
+     */
+    private static byte[] record(final DataInputStream dis) throws IOException
+    {
+        try {
+            final int length = dis.readInt();
+            final int crc = dis.readInt();
+
+            if (length < 0 || length > dis.available()) {
+                return null;
+            }
+
+            final byte[] bytes = new byte[length];
+
+            dis.readFully(bytes);
+
+            final CRC32 c = new CRC32();
+
+            c.update(bytes, 0, length);
+
+            return (int) c.getValue() == crc ? bytes : null;
+        } catch (final EOFException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,415 @@
+package net.ftod.zcube.zdd;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * <h1>Multi-terminal ZDD of <code>long</code> counts</h1>
+ *
+ * <p>
+ * An alternative to {@link ZDDNumber} storing the count of each set in the leaf its path reaches, rather than spreading it across negabinary digits. Nodes
+ * whose <em>then</em> branch is the zero leaf are suppressed, as in a {@link ZDD}, and leaves are shared by value. Adding two diagrams, or reading the count of
+ * a set, walks a single diagram instead of up to 64 digits : when the counts take a few distinct values the diagram is far smaller than the digits of the
+ * equivalent {@link ZDDNumber}.
+ * </p>
+ * <p>
+ * Counts are <code>long</code> and wrap on overflow.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDLong {
+
+    /**
+     * The leaf counting every set zero times.
+     */
+    public static final ZDDLong ZERO = new ZDDLong(0L, null, null, 0L, hash(0L));
+
+    public final long x;
+    public final ZDDLong b;
+    public final ZDDLong t;
+    /**
+     * The count held by a leaf.
+     */
+    public final long l;
+    final int h;
+
+    private ZDDLong(final long x, final ZDDLong b, final ZDDLong t, final long l, final int h) {
+        super();
+        this.x = x;
+        this.b = b;
+        this.t = t;
+        this.l = l;
+        this.h = h;
+    }
+
+    private static int hash(final long x, final ZDDLong b, final ZDDLong t)
+    {
+        int result = 1;
+        result = 31 * result + hash(x);
+        result = 31 * result + b.h;
+        result = 31 * result + t.h;
+        return result;
+    }
+
+    private static int hash(final long l)
+    {
+        return (int) (l ^ l >>> 32);
+    }
+
+    public boolean leaf()
+    {
+        return b == null;
+    }
+
+    static ZDDLong leaf(final ZDDLongCacheN _nod, final long l)
+    {
+        if (l == 0L) {
+            return ZERO;
+        }
+
+        final int h = hash(l);
+
+        ZDDLong z = _nod.get(h, l, null, null);
+
+        if (z == null) {
+            z = new ZDDLong(l, null, null, l, h);
+            _nod.put(h, l, null, null, z);
+        }
+
+        return z;
+    }
+
+    static ZDDLong node(final ZDDLongCacheN _nod, final long x, final ZDDLong b, final ZDDLong t)
+    {
+        if (t == ZERO) {
+            return b;
+        }
+
+        final int h = hash(x, b, t);
+
+        ZDDLong z = _nod.get(h, x, b, t);
+
+        if (z == null) {
+            z = new ZDDLong(x, b, t, 0L, h);
+            _nod.put(h, x, b, t, z);
+        }
+
+        return z;
+    }
+
+    /**
+     * The sets without <code>x</code>, <code>x</code> preceding all the elements of <code>z</code>.
+     */
+    private static ZDDLong lo(final ZDDLong z, final long x)
+    {
+        return !z.leaf() && z.x == x ? z.b : z;
+    }
+
+    /**
+     * The sets with <code>x</code>, <code>x</code> removed.
+     */
+    private static ZDDLong hi(final ZDDLong z, final long x)
+    {
+        return !z.leaf() && z.x == x ? z.t : ZERO;
+    }
+
+    private static long top(final ZDDLong z1, final ZDDLong z2)
+    {
+        if (z1.leaf()) {
+            return z2.x;
+        }
+        if (z2.leaf()) {
+            return z1.x;
+        }
+        return Math.min(z1.x, z2.x);
+    }
+
+    /**
+     * <h3>Count each set of a {@link ZDD} a number of times</h3>
+     */
+    public static ZDDLong times(final long l, final ZDD zdd)
+    {
+        return times(new ZDDLongCacheN(), new IdentityHashMap<ZDD, ZDDLong>(), l, zdd);
+    }
+
+    static ZDDLong times(final ZDDLongCacheN _nod, final Map<ZDD, ZDDLong> _tim, final long l, final ZDD zdd)
+    {
+        if (zdd == ZDD.BOT) {
+            return ZERO;
+        }
+
+        if (zdd == ZDD.TOP) {
+            return leaf(_nod, l);
+        }
+
+        ZDDLong z = _tim.get(zdd);
+
+        if (z == null) {
+            z = node(_nod, zdd.x, times(_nod, _tim, l, zdd.b), times(_nod, _tim, l, zdd.t));
+            _tim.put(zdd, z);
+        }
+
+        return z;
+    }
+
+    /**
+     * <h3>Addition of two {@link ZDDLong}</h3>
+     */
+    public static ZDDLong add(final ZDDLong z1, final ZDDLong z2)
+    {
+        return add(new ZDDLongCacheN(), new ZDDLongCacheO(), z1, z2);
+    }
+
+    static ZDDLong add(final ZDDLongCacheN _nod, final ZDDLongCacheO _add, final ZDDLong z1, final ZDDLong z2)
+    {
+        return apply(_nod, _add, false, z1, z2);
+    }
+
+    /**
+     * <h3>Subtraction of two {@link ZDDLong}</h3>
+     */
+    public static ZDDLong subtract(final ZDDLong z1, final ZDDLong z2)
+    {
+        return subtract(new ZDDLongCacheN(), new ZDDLongCacheO(), z1, z2);
+    }
+
+    static ZDDLong subtract(final ZDDLongCacheN _nod, final ZDDLongCacheO _sub, final ZDDLong z1, final ZDDLong z2)
+    {
+        return apply(_nod, _sub, true, z1, z2);
+    }
+
+    private static ZDDLong apply(final ZDDLongCacheN _nod, final ZDDLongCacheO _app, final boolean subtract, final ZDDLong z1, final ZDDLong z2)
+    {
+        if (z2 == ZERO) {
+            return z1;
+        }
+
+        if (z1 == ZERO && !subtract) {
+            return z2;
+        }
+
+        if (z1.leaf() && z2.leaf()) {
+            return leaf(_nod, subtract ? z1.l - z2.l : z1.l + z2.l);
+        }
+
+        ZDDLong z = _app.get(z1, z2);
+
+        if (z == null) {
+            final long x = top(z1, z2);
+            z = node(_nod, x, apply(_nod, _app, subtract, lo(z1, x), lo(z2, x)), apply(_nod, _app, subtract, hi(z1, x), hi(z2, x)));
+            _app.put(z1, z2, z);
+        }
+
+        return z;
+    }
+
+    /**
+     * <h3>Restriction of a {@link ZDDLong} to the sets of a {@link ZDD}</h3>
+     */
+    public static ZDDLong filter(final ZDDLong z, final ZDD zdd)
+    {
+        return filter(new ZDDLongCacheN(), new ZDDLongCacheO(), z, zdd);
+    }
+
+    static ZDDLong filter(final ZDDLongCacheN _nod, final ZDDLongCacheO _fil, final ZDDLong z, final ZDD zdd)
+    {
+        if (z == ZERO || zdd == ZDD.BOT) {
+            return ZERO;
+        }
+
+        if (zdd == ZDD.TOP) {
+            return empty(z);
+        }
+
+        if (z.leaf()) {
+            return ZDD.topIncluded(zdd) ? z : ZERO;
+        }
+
+        ZDDLong f = _fil.get(z, zdd);
+
+        if (f == null) {
+            if (z.x < zdd.x) {
+                f = filter(_nod, _fil, z.b, zdd);
+            } else if (z.x > zdd.x) {
+                f = filter(_nod, _fil, z, zdd.b);
+            } else {
+                f = node(_nod, z.x, filter(_nod, _fil, z.b, zdd.b), filter(_nod, _fil, z.t, zdd.t));
+            }
+            _fil.put(z, zdd, f);
+        }
+
+        return f;
+    }
+
+    /**
+     * The leaf counting the empty set.
+     */
+    private static ZDDLong empty(final ZDDLong z)
+    {
+        ZDDLong e = z;
+
+        while (!e.leaf()) {
+            e = e.b;
+        }
+
+        return e;
+    }
+
+    /**
+     * <h3>Count of a single set</h3>
+     *
+     * @param xs
+     *            the elements of the set, sorted in increasing order, as given by {@link ZDDTree#set(ZDDTree)}.
+     */
+    public static long count(final ZDDLong z, final long[] xs)
+    {
+        ZDDLong n = z;
+        int i = 0;
+
+        while (!n.leaf()) {
+            if (i == xs.length || n.x < xs[i]) {
+                n = n.b;
+            } else if (n.x == xs[i]) {
+                n = n.t;
+                ++i;
+            } else {
+                return 0L;
+            }
+        }
+
+        return i == xs.length ? n.l : 0L;
+    }
+
+    /**
+     * <h3>Total count of the sets of a {@link ZDD}</h3>
+     */
+    public static long count(final ZDDLong z, final ZDD zdd)
+    {
+        return sum(new IdentityHashMap<ZDDLong, Long>(), filter(z, zdd));
+    }
+
+    private static long sum(final Map<ZDDLong, Long> _sum, final ZDDLong z)
+    {
+        if (z.leaf()) {
+            return z.l;
+        }
+
+        final Long cached = _sum.get(z);
+
+        if (cached != null) {
+            return cached.longValue();
+        }
+
+        final long s = sum(_sum, z.b) + sum(_sum, z.t);
+
+        _sum.put(z, s);
+
+        return s;
+    }
+
+    /**
+     * <h3>Number of distinct nodes and leaves of a {@link ZDDLong}</h3>
+     */
+    public static long nodes(final ZDDLong z)
+    {
+        final Map<ZDDLong, ZDDLong> visited = new IdentityHashMap<ZDDLong, ZDDLong>();
+        nodes(visited, z);
+        return visited.size();
+    }
+
+    private static void nodes(final Map<ZDDLong, ZDDLong> visited, final ZDDLong z)
+    {
+        if (visited.put(z, z) != null || z.leaf()) {
+            return;
+        }
+        nodes(visited, z.b);
+        nodes(visited, z.t);
+    }
+
+    /**
+     * <h3>Conversion from a signed negabinary {@link ZDDNumber}</h3>
+     */
+    public static ZDDLong zddLong(final ZDDNumber zn)
+    {
+        final ZDDLongCacheN _nod = new ZDDLongCacheN();
+        final ZDDLongCacheO _add = new ZDDLongCacheO();
+
+        ZDDLong z = ZERO;
+        long w = 1L;
+
+        for (final ZDD digit : ZDDNumber.digits(zn)) {
+            z = add(_nod, _add, z, times(_nod, new IdentityHashMap<ZDD, ZDDLong>(), w, digit));
+            w *= -2L;
+        }
+
+        return z;
+    }
+
+    /**
+     * <h3>Conversion to a signed negabinary {@link ZDDNumber}</h3>
+     *
+     * <p>
+     * The sets reaching each distinct leaf are gathered into a {@link ZDD}, and added with the count of the leaf.
+     * </p>
+     */
+    public static ZDDNumber zddNumber(final ZDDLong z)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        final TreeSet<Long> values = new TreeSet<Long>();
+
+        leaves(new IdentityHashMap<ZDDLong, ZDDLong>(), values, z);
+
+        ZDDNumber zn = ZDDNumber.ZERO;
+
+        for (final Long l : values) {
+            final ZDD sets = sets(_nod, new IdentityHashMap<ZDDLong, ZDD>(), l.longValue(), z);
+            zn = ZDDNumber.negabinaryAdd(_nod, _equ, _int, _uni, _dif, zn, ZDDNumber.negabinary(l.longValue(), sets));
+        }
+
+        return zn;
+    }
+
+    private static void leaves(final Map<ZDDLong, ZDDLong> visited, final TreeSet<Long> values, final ZDDLong z)
+    {
+        if (visited.put(z, z) != null) {
+            return;
+        }
+
+        if (z.leaf()) {
+            if (z.l != 0L) {
+                values.add(z.l);
+            }
+            return;
+        }
+
+        leaves(visited, values, z.b);
+        leaves(visited, values, z.t);
+    }
+
+    /**
+     * The sets counted <code>l</code> times.
+     */
+    private static ZDD sets(final ZDDCacheN _nod, final Map<ZDDLong, ZDD> _set, final long l, final ZDDLong z)
+    {
+        if (z.leaf()) {
+            return z.l == l ? ZDD.TOP : ZDD.BOT;
+        }
+
+        ZDD zdd = _set.get(z);
+
+        if (zdd == null) {
+            zdd = ZDD.zdd(_nod, z.x, sets(_nod, _set, l, z.b), sets(_nod, _set, l, z.t));
+            _set.put(z, zdd);
+        }
+
+        return zdd;
+    }
+
+}
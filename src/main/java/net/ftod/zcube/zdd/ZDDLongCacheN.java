@@ -0,0 +1,51 @@
+package net.ftod.zcube.zdd;
+
+import static net.ftod.zcube.zdd.ZDD.CACHE_MAX;
+import static net.ftod.zcube.zdd.ZDD.CACHE_SIZE;
+
+/**
+ * <h3>Caching {@link ZDDLong} nodes and leaves</h3>
+ * 
+ * <p>
+ * Small <b>mutable</b> table sharing the nodes and leaves of {@link ZDDLong} diagrams. A leaf is keyed on its value, with no children.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+final class ZDDLongCacheN {
+
+    private final long[] _x = new long[CACHE_SIZE];
+    private final ZDDLong[] _b = new ZDDLong[CACHE_SIZE];
+    private final ZDDLong[] _t = new ZDDLong[CACHE_SIZE];
+    private final ZDDLong[] _z = new ZDDLong[CACHE_SIZE];
+
+    ZDDLongCacheN() {
+        super();
+    }
+
+    ZDDLong get(final int h, final long x, final ZDDLong b, final ZDDLong t)
+    {
+        final int index = h & CACHE_MAX;
+
+        if (x != _x[index]) {
+            return null;
+        }
+        if (b != _b[index]) {
+            return null;
+        }
+        if (t != _t[index]) {
+            return null;
+        }
+        return _z[index];
+    }
+
+    void put(final int h, final long x, final ZDDLong b, final ZDDLong t, final ZDDLong z)
+    {
+        final int index = h & CACHE_MAX;
+
+        _x[index] = x;
+        _b[index] = b;
+        _t[index] = t;
+        _z[index] = z;
+    }
+}
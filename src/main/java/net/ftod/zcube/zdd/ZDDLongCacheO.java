@@ -0,0 +1,67 @@
+package net.ftod.zcube.zdd;
+
+import static net.ftod.zcube.zdd.ZDD.CACHE_MAX;
+import static net.ftod.zcube.zdd.ZDD.CACHE_SIZE;
+
+/**
+ * <h3>Caching binary operations on {@link ZDDLong}</h3>
+ * 
+ * <p>
+ * Small <b>mutable</b> cache for binary operations on {@link ZDDLong}, the second operand being either a {@link ZDDLong} or a {@link ZDD}. Used to speed up
+ * recursive operations.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+final class ZDDLongCacheO {
+
+    private final ZDDLong[] _z1 = new ZDDLong[CACHE_SIZE];
+    private final Object[] _z2 = new Object[CACHE_SIZE];
+    private final ZDDLong[] _z3 = new ZDDLong[CACHE_SIZE];
+
+    private static int index(final int h1, final int h2)
+    {
+        return 1 + 31 * (h1 + 31 * h2) & CACHE_MAX;
+    }
+
+    ZDDLongCacheO() {
+        super();
+    }
+
+    ZDDLong get(final ZDDLong z1, final ZDDLong z2)
+    {
+        return get(index(z1.h, z2.h), z1, z2);
+    }
+
+    ZDDLong get(final ZDDLong z1, final ZDD z2)
+    {
+        return get(index(z1.h, z2.h), z1, z2);
+    }
+
+    private ZDDLong get(final int index, final ZDDLong z1, final Object z2)
+    {
+        if (z1 != _z1[index] || z2 != _z2[index]) {
+            return null;
+        }
+
+        return _z3[index];
+    }
+
+    void put(final ZDDLong z1, final ZDDLong z2, final ZDDLong z3)
+    {
+        put(index(z1.h, z2.h), z1, z2, z3);
+    }
+
+    void put(final ZDDLong z1, final ZDD z2, final ZDDLong z3)
+    {
+        put(index(z1.h, z2.h), z1, z2, z3);
+    }
+
+    private void put(final int index, final ZDDLong z1, final Object z2, final ZDDLong z3)
+    {
+        _z1[index] = z1;
+        _z2[index] = z2;
+        _z3[index] = z3;
+    }
+
+}
@@ -0,0 +1,135 @@
+package net.ftod.zcube.zdd;
+
+/**
+ * <h3>Mapping <code>long</code> to <code>long</code></h3>
+ * 
+ * <p>
+ * Small <b>mutable</b> open-addressing hash map from <code>long</code> keys to <code>long</code> values, avoiding the boxing of node identifiers.
+ * </p>
+ * <p>
+ * Maps handed out of the package, as for example by {@link ZDDNumber#marginals(ZDDNumber)}, are read-only.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDMapL {
+
+    private long[] _k;
+    private long[] _v;
+    private boolean[] _u;
+    private int size = 0;
+
+    ZDDMapL() {
+        this(16);
+    }
+
+    ZDDMapL(final int capacity) {
+        super();
+        int c = 16;
+        while (c < capacity << 1) {
+            c <<= 1;
+        }
+        _k = new long[c];
+        _v = new long[c];
+        _u = new boolean[c];
+    }
+
+    private static int index(final long k, final int mask)
+    {
+        final long h = k * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & mask;
+    }
+
+    private int slot(final long k)
+    {
+        final int mask = _k.length - 1;
+
+        int i = index(k, mask);
+
+        while (_u[i] && _k[i] != k) {
+            i = i + 1 & mask;
+        }
+
+        return i;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean containsKey(final long k)
+    {
+        return _u[slot(k)];
+    }
+
+    public long get(final long k, final long v)
+    {
+        final int i = slot(k);
+        return _u[i] ? _v[i] : v;
+    }
+
+    void put(final long k, final long v)
+    {
+        final int i = slot(k);
+
+        if (_u[i]) {
+            _v[i] = v;
+            return;
+        }
+
+        _u[i] = true;
+        _k[i] = k;
+        _v[i] = v;
+
+        if (++size << 1 > _k.length) {
+            grow();
+        }
+    }
+
+    void add(final long k, final long v)
+    {
+        final int i = slot(k);
+
+        if (_u[i]) {
+            _v[i] += v;
+            return;
+        }
+
+        put(k, v);
+    }
+
+    public long[] keys()
+    {
+        final long[] ks = new long[size];
+
+        int j = 0;
+
+        for (int i = 0; i < _k.length; ++i) {
+            if (_u[i]) {
+                ks[j++] = _k[i];
+            }
+        }
+
+        return ks;
+    }
+
+    private void grow()
+    {
+        final long[] k = _k;
+        final long[] v = _v;
+        final boolean[] u = _u;
+
+        _k = new long[k.length << 1];
+        _v = new long[k.length << 1];
+        _u = new boolean[k.length << 1];
+        size = 0;
+
+        for (int i = 0; i < k.length; ++i) {
+            if (u[i]) {
+                put(k[i], v[i]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>Persistent memo of subtrees</h1>
+ *
+ * <p>
+ * Terms of a workload share their dimensions : the same page, the same gender, the same path of a hierarchy, come back term after term. The subtrees of a
+ * cross being the cross union of the subtrees of its operands, a memo maps each operand, by its canonical serialized form, to its subtrees, and a term only
+ * computes the subtrees of the operands not seen yet. The memo keeps the most recently used entries up to its capacity.
+ * </p>
+ * <p>
+ * The memo, and its subtrees, can be saved to a file and loaded back by a restarted worker, which then starts with the operands it saw last rather than with
+ * an empty memo. The subtrees are written once each node, shared nodes included, as in a {@link ZDDSnapshot}.
+ * </p>
+ * <p>
+ * A memo is <b>mutable</b>, and not safe for use by several threads at once.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDMemo {
+
+    /**
+     * Default maximum number of entries.
+     */
+    public static final int CAPACITY = 65536;
+
+    private static final int MAGIC = 0x5A44444D;
+    private static final int VERSION = 1;
+
+    private final LinkedHashMap<ByteBuffer, ZDD> memo;
+
+    private final ZDDCacheN _nod = new ZDDCacheN();
+    private final ZDDCacheP _equ = new ZDDCacheP();
+    private final ZDDCacheO _cru = new ZDDCacheO();
+    private final ZDDCacheO _uni = new ZDDCacheO();
+    private final ZDDCacheO _int = new ZDDCacheO();
+    private final ZDDCacheO _dif = new ZDDCacheO();
+
+    public ZDDMemo() {
+        this(CAPACITY);
+    }
+
+    public ZDDMemo(final int capacity) {
+        super();
+        this.memo = new LinkedHashMap<ByteBuffer, ZDD>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, ZDD> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * The number of entries.
+     */
+    public int size()
+    {
+        return memo.size();
+    }
+
+    /**
+     * <h3>Subtrees of a tree</h3>
+     */
+    public ZDD subtrees(final ZDDTree t)
+    {
+        return subtrees(ZDDTree.treeL(t));
+    }
+
+    ZDD subtrees(final ZDDTreeL t)
+    {
+        final ZDDTreeL[] factors = t.factors();
+        final ZDD[] zdds = new ZDD[factors.length];
+
+        for (int i = 0; i < factors.length; ++i) {
+            zdds[i] = factor(factors[i]);
+        }
+
+        return ZDD.crossUnion(_nod, _equ, _cru, _uni, zdds);
+    }
+
+    private ZDD factor(final ZDDTreeL t)
+    {
+        final ByteBuffer key = key(t);
+
+        ZDD zdd = memo.get(key);
+
+        if (zdd == null) {
+            zdd = ZDDTreeL.subtrees(t, _nod, _equ, _cru, _uni);
+            memo.put(key, zdd);
+        }
+
+        return zdd;
+    }
+
+    private static ByteBuffer key(final ZDDTreeL t)
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+
+        try {
+            t.canonical().write(dos);
+            dos.flush();
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+
+    /**
+     * <h3>Add the subtrees of a term</h3>
+     *
+     * @see ZDDNumber#addSubtrees(ZDDTerm, ZDDNumber)
+     */
+    public ZDDNumber addSubtrees(final ZDDTerm zt, final ZDDNumber zn)
+    {
+        return ZDDNumber.negabinaryAdd(_nod, _equ, _int, _uni, _dif, ZDDNumber.negabinary(zt.l, subtrees(zt.t)), zn);
+    }
+
+    public ZDDNumber sumSubtrees(final Iterable<ZDDTerm> i)
+    {
+        return sumSubtrees(i.iterator());
+    }
+
+    /**
+     * <h3>Sum the subtrees of a sequence of {@link ZDDTerm}</h3>
+     *
+     * @see ZDDNumber#sumSubtrees(Iterator)
+     */
+    public ZDDNumber sumSubtrees(final Iterator<ZDDTerm> i)
+    {
+        ZDDNumber zn = ZDDNumber.ZERO;
+
+        while (i.hasNext()) {
+            zn = addSubtrees(i.next(), zn);
+        }
+
+        return zn;
+    }
+
+    /**
+     * <h3>Save the memo</h3>
+     *
+     * <p>
+     * Entries are written from the least to the most recently used, so that loading them back preserves their order.
+     * </p>
+     */
+    public void save(final File f) throws IOException
+    {
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 262144));
+
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(memo.size());
+
+            final ZDD[] zdds = new ZDD[memo.size()];
+            int i = 0;
+
+            for (final Map.Entry<ByteBuffer, ZDD> e : memo.entrySet()) {
+                final ByteBuffer key = e.getKey();
+                dos.writeInt(key.remaining());
+                dos.write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+                zdds[i++] = e.getValue();
+            }
+
+            ZDDSnapshot.write(zdds, dos);
+        } finally {
+            dos.close();
+        }
+    }
+
+    public static ZDDMemo load(final File f) throws IOException
+    {
+        return load(f, CAPACITY);
+    }
+
+    /**
+     * <h3>Load a memo saved by {@link #save(File)}</h3>
+     */
+    public static ZDDMemo load(final File f, final int capacity) throws IOException
+    {
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 262144));
+
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                throw new IOException("Not a memo " + f);
+            }
+
+            final ByteBuffer[] keys = new ByteBuffer[dis.readInt()];
+
+            for (int i = 0; i < keys.length; ++i) {
+                final byte[] bytes = new byte[dis.readInt()];
+                dis.readFully(bytes);
+                keys[i] = ByteBuffer.wrap(bytes);
+            }
+
+            final ZDD[] zdds = ZDDSnapshot.read(dis);
+
+            if (zdds.length != keys.length) {
+                throw new IOException("Corrupt memo " + f);
+            }
+
+            final ZDDMemo memo = new ZDDMemo(capacity);
+
+            for (int i = 0; i < keys.length; ++i) {
+                memo.memo.put(keys[i], zdds[i]);
+            }
+
+            return memo;
+        } finally {
+            dis.close();
+        }
+    }
+
+}
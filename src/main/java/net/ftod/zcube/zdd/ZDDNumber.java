@@ -2,13 +2,16 @@ package net.ftod.zcube.zdd;
 
 import static net.ftod.zcube.zdd.ZDD.included;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 
@@ -72,6 +75,36 @@ public final class ZDDNumber {
         return l == 0L ? ZERO : number(l % 2L == 0 ? ZDD.BOT : zdd, binary(l >> 1, zdd));
     }
 
+    /**
+     * <h3>Convert an unsigned binary {@link ZDDNumber} to negabinary</h3>
+     * 
+     * <p>
+     * The binary digits at even positions have the same weight in negabinary, those at odd positions the opposite weight : the negabinary number is the
+     * difference of the even and the odd digits.
+     * </p>
+     */
+    public static ZDDNumber negabinary(final ZDDNumber zddn)
+    {
+        return negabinary(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), zddn);
+    }
+
+    static ZDDNumber negabinary(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDNumber zddn)
+    {
+        return negabinarySub(_nod, _equ, _int, _uni, _dif, digits(zddn, true), digits(zddn, false));
+    }
+
+    /**
+     * The digits at even, or odd, positions.
+     */
+    private static ZDDNumber digits(final ZDDNumber zddn, final boolean even)
+    {
+        if (zddn == ZERO) {
+            return ZERO;
+        }
+
+        return number(even ? zddn.digit : ZDD.BOT, digits(zddn.number, !even));
+    }
+
     /**
      * <h3>Counting the occurrences of a {@link ZDD} in an unsigned binary {@link ZDDNumber}</h3>
      * 
@@ -95,6 +128,30 @@ public final class ZDDNumber {
         return zddn == ZERO ? 0L : (included(eq, in, zdd, zddn.digit) ? 1L : 0L) + (binary(eq, in, zddn.number, zdd) << 1);
     }
 
+    /**
+     * <h3>Counting the occurrences of a single set in an unsigned binary {@link ZDDNumber}</h3>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber}.
+     * @param xs
+     *            the elements of the set, sorted in increasing order, as given by {@link ZDDTree#set(ZDDTree)}.
+     * @return the number of occurrences of the set, computed without allocating.
+     */
+    public static long binary(final ZDDNumber zddn, final long[] xs)
+    {
+        long l = 0L;
+        long w = 1L;
+
+        for (ZDDNumber zn = zddn; zn != ZERO; zn = zn.number) {
+            if (ZDD.member(zn.digit, xs)) {
+                l += w;
+            }
+            w <<= 1;
+        }
+
+        return l;
+    }
+
     /**
      * <h3>Addition of two unsigned binary {@link ZDDNumber}</h3>
      * 
@@ -122,69 +179,756 @@ public final class ZDDNumber {
             return new ZDDNumber(ZDD.BOT, zddnc);
         }
 
-        return number(zddns.digit, binaryAdd(nod, eq, in, un, di, zddns.number, zddnc));
+        return number(zddns.digit, binaryAdd(nod, eq, in, un, di, zddns.number, zddnc));
+    }
+
+    /**
+     * <h3>Compute the <em>negabinary</em> representation of a {@link ZDD} multiplied by a <em>signed</em> <code>long</code></h3>
+     * 
+     * @param l
+     *            the <code>long</code> holding the <em>signed</em> coefficient.
+     * @param zdd
+     *            the {@link ZDD} multiplicand.
+     * @return the {@link ZDDNumber} representing in negabinary <code>l</code> occurrences of <code>zdd</code>
+     */
+    public static ZDDNumber negabinary(final long l, final ZDD zdd)
+    {
+        if (l == 0) {
+            return ZERO;
+        }
+
+        final long q = l / -2L;
+        final long r = l + 2L * q;
+
+        final long l1;
+        ZDD digit;
+
+        if (r > 0) {
+            digit = zdd;
+            l1 = q;
+        } else if (r < 0) {
+            digit = zdd;
+            l1 = q + 1;
+        } else {
+            digit = ZDD.BOT;
+            l1 = q;
+        }
+
+        return number(digit, negabinary(l1, zdd));
+    }
+
+    /**
+     * <h3>Counting the occurrences of a {@link ZDD} in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * Return the number of occurrences of a set of sets represented as a {@link ZDD} within a {@link ZDDNumber}.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber} to be projected over the set of sets.
+     * @param zdd
+     *            the {@link ZDD} representing the set of sets.
+     * @return the <code>long</code> representing the number of occurrences of the set of sets within the {@link ZDDNumber}.
+     */
+    public static long negabinary(final ZDDNumber zddn, final ZDD zdd)
+    {
+        return negabinary(new ZDDCacheP(), new ZDDCacheP(), zddn, zdd);
+    }
+
+    static long negabinary(final ZDDCacheP eq, final ZDDCacheP in, final ZDDNumber zddn, final ZDD zdd)
+    {
+        if (zddn == ZERO) {
+            return 0L;
+        }
+
+        return (included(eq, in, zdd, zddn.digit) ? 1L : 0L) + negabinary(eq, in, zddn.number, zdd) * -2L;
+    }
+
+    /**
+     * <h3>Counting the occurrences of a single set in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber}.
+     * @param xs
+     *            the elements of the set, sorted in increasing order, as given by {@link ZDDTree#set(ZDDTree)}.
+     * @return the number of occurrences of the set, computed without allocating.
+     */
+    public static long negabinary(final ZDDNumber zddn, final long[] xs)
+    {
+        long l = 0L;
+        long w = 1L;
+
+        for (ZDDNumber zn = zddn; zn != ZERO; zn = zn.number) {
+            if (ZDD.member(zn.digit, xs)) {
+                l += w;
+            }
+            w *= -2L;
+        }
+
+        return l;
+    }
+
+    /**
+     * <h3>Marginal counts of all the single node trees in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * @see #marginals(ZDDNumber, long[])
+     */
+    public static ZDDMapL marginals(final ZDDNumber zddn)
+    {
+        return marginals(zddn, new long[0]);
+    }
+
+    /**
+     * <h3>Marginal counts of all the one node extensions of a tree in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * A set <code>{x}</code> is in a digit iff <code>x</code> is on the chain of else branches from the root, and the then branch of <code>x</code> holds the
+     * empty set. One walk down that chain per digit yields the counts of all the singletons at once. Extensions of a tree are first brought back to singletons
+     * by taking the onset of each of its nodes.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber}.
+     * @param prefix
+     *            the nodes of a tree, as given by {@link ZDDTree#set(ZDDTree)}.
+     * @return the map from every node <code>x</code> to the count of the set of nodes <code>prefix</code> plus <code>x</code>, for the non zero counts.
+     */
+    public static ZDDMapL marginals(final ZDDNumber zddn, final long[] prefix)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheO _ons = new ZDDCacheO();
+        final ZDDMapL counts = new ZDDMapL();
+
+        long w = 1L;
+
+        for (ZDDNumber zn = zddn; zn != ZERO; zn = zn.number) {
+
+            ZDD z = zn.digit;
+
+            for (final long x : prefix) {
+                z = ZDD.onset(_nod, _ons, z, x);
+            }
+
+            while (z != ZDD.BOT && z != ZDD.TOP) {
+                if (ZDD.topIncluded(z.t)) {
+                    counts.add(z.x, w);
+                }
+                z = z.b;
+            }
+
+            w *= -2L;
+        }
+
+        return counts;
+    }
+
+    /**
+     * <h3>The sets with the largest counts in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * Best-first branch and bound over the equivalent {@link ZDDLong}, each node bounded by the largest count below it : the work is proportional to the
+     * <code>k</code> sets found and their depth, on top of the conversion, and never to the sets outweighed by them.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber}.
+     * @param k
+     *            the maximum number of sets returned.
+     * @return the sets of the {@link ZDDNumber} by decreasing counts.
+     */
+    public static List<ZDDCount> heaviest(final ZDDNumber zddn, final int k)
+    {
+        return ZDDHeaviest.heaviest(zddn, null, k);
+    }
+
+    /**
+     * <h3>The sets of a filter with the largest counts in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber}.
+     * @param filter
+     *            the {@link ZDD} holding the sets searched.
+     * @param k
+     *            the maximum number of sets returned.
+     * @return the sets of the {@link ZDDNumber} also in the filter, by decreasing counts.
+     */
+    public static List<ZDDCount> heaviest(final ZDDNumber zddn, final ZDD filter, final int k)
+    {
+        return ZDDHeaviest.heaviest(zddn, filter, k);
+    }
+
+    /**
+     * <h3>Counting the occurrences of many {@link ZDD} in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * Each digit is visited once, all the queries being tested against it with shared caches.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber} to be projected over the sets of sets.
+     * @param zdds
+     *            the {@link ZDD} representing the sets of sets.
+     * @return the numbers of occurrences of each set of sets within the {@link ZDDNumber}.
+     */
+    public static long[] negabinary(final ZDDNumber zddn, final ZDD[] zdds)
+    {
+        return negabinary(new ZDDCacheP(), new ZDDCacheP(), digits(zddn), 0, length(zddn), zdds);
+    }
+
+    /**
+     * <h3>Counting the occurrences of many trees in a signed negabinary {@link ZDDNumber}</h3>
+     */
+    public static long[] negabinary(final ZDDNumber zddn, final ZDDTree[] ts)
+    {
+        return negabinary(zddn, trees(ts));
+    }
+
+    /**
+     * Sum of the occurrences of the queries in the digits from <code>begin</code> to <code>end</code>, weighted from <code>(-2)^0</code> on.
+     */
+    static long[] negabinary(final ZDDCacheP eq, final ZDDCacheP in, final ZDD[] digits, final int begin, final int end, final ZDD[] zdds)
+    {
+        final int n = zdds.length;
+        final long[] ls = new long[n];
+
+        for (int i = end; i-- > begin;) {
+            final ZDD digit = digits[i];
+            for (int j = 0; j < n; ++j) {
+                ls[j] = ls[j] * -2L + (included(eq, in, zdds[j], digit) ? 1L : 0L);
+            }
+        }
+
+        return ls;
+    }
+
+    /**
+     * <h3>Counting in parallel the occurrences of many {@link ZDD} in a signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * The digits are tested concurrently, each with its own caches.
+     * </p>
+     */
+    public static long[] pNegabinary(final ZDDNumber zddn, final ZDD[] zdds)
+    {
+        final ZDD[] digits = digits(zddn);
+        final ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        try {
+            return forkJoinPool.invoke(recursiveCountTask(digits, 0, digits.length, zdds));
+        } finally {
+            awaitTermination(forkJoinPool);
+        }
+    }
+
+    public static long[] pNegabinary(final ZDDNumber zddn, final ZDDTree[] ts)
+    {
+        return pNegabinary(zddn, trees(ts));
+    }
+
+    private static RecursiveTask<long[]> recursiveCountTask(final ZDD[] digits, final int begin, final int end, final ZDD[] zdds)
+    {
+        return new RecursiveTask<long[]>() {
+
+            private static final long serialVersionUID = -2395140745263957126L;
+
+            @Override
+            protected long[] compute()
+            {
+                final int length = end - begin;
+
+                if (length > 1) {
+
+                    final int middle = begin + (length >> 1);
+
+                    final RecursiveTask<long[]> t1 = recursiveCountTask(digits, begin, middle, zdds);
+                    final RecursiveTask<long[]> t2 = recursiveCountTask(digits, middle, end, zdds);
+
+                    invokeAll(t1, t2);
+
+                    final long[] ls1 = t1.join();
+                    final long[] ls2 = t2.join();
+
+                    long weight = 1L;
+
+                    for (int i = begin; i < middle; ++i) {
+                        weight *= -2L;
+                    }
+
+                    for (int j = 0; j < ls1.length; ++j) {
+                        ls1[j] += ls2[j] * weight;
+                    }
+
+                    return ls1;
+                }
+
+                return negabinary(new ZDDCacheP(), new ZDDCacheP(), digits, begin, end, zdds);
+            }
+        };
+    }
+
+    static int length(final ZDDNumber zddn)
+    {
+        int length = 0;
+
+        for (ZDDNumber zn = zddn; zn != ZERO; zn = zn.number) {
+            ++length;
+        }
+
+        return length;
+    }
+
+    /**
+     * The digits of a {@link ZDDNumber}, least significant first.
+     */
+    static ZDD[] digits(final ZDDNumber zddn)
+    {
+        final ZDD[] digits = new ZDD[length(zddn)];
+
+        int i = 0;
+
+        for (ZDDNumber zn = zddn; zn != ZERO; zn = zn.number) {
+            digits[i++] = zn.digit;
+        }
+
+        return digits;
+    }
+
+    private static ZDD[] trees(final ZDDTree[] ts)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _cru = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+
+        final int n = ts.length;
+        final ZDD[] zs = new ZDD[n];
+
+        for (int j = 0; j < n; ++j) {
+            zs[j] = ZDDTree.trees(ts[j], _nod, _equ, _cru, _uni);
+        }
+
+        return zs;
+    }
+
+    /**
+     * <h3>Support of a {@link ZDDNumber}</h3>
+     * 
+     * @return the {@link ZDD} of the sets with a non zero count, ie the union of the digits.
+     */
+    public static ZDD support(final ZDDNumber zddn)
+    {
+        return support(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), zddn);
+    }
+
+    static ZDD support(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _uni, final ZDDNumber zddn)
+    {
+        return ZDD.union(_nod, _equ, _uni, digits(zddn));
+    }
+
+    /**
+     * Estimated bytes retained by a digit cell : object header and two references, on a 64-bit virtual machine with compressed references.
+     */
+    public static final long DIGIT_BYTES = 24L;
+
+    /**
+     * <h3>Number of distinct nodes of the digits of a {@link ZDDNumber}, {@link ZDD#BOT} and {@link ZDD#TOP} excluded</h3>
+     * 
+     * <p>
+     * Nodes shared between digits are counted once.
+     * </p>
+     */
+    public static long nodes(final ZDDNumber zddn)
+    {
+        return ZDD.nodes(digits(zddn));
+    }
+
+    /**
+     * <h3>Estimated bytes retained by a {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * The nodes of the digits, shared ones counted once, and the cells of the digit list.
+     * </p>
+     * 
+     * @see ZDD#bytes(ZDD...)
+     */
+    public static long bytes(final ZDDNumber zddn)
+    {
+        return ZDD.NODE_BYTES * nodes(zddn) + DIGIT_BYTES * length(zddn);
+    }
+
+    /**
+     * The sets with a positive count, and those with a negative count. The sign of a negabinary number is that of its most significant non zero digit, positive
+     * at even positions and negative at odd ones.
+     */
+    static ZDD[] signs(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDNumber zddn)
+    {
+        final ZDD[] digits = digits(zddn);
+
+        ZDD pos = ZDD.BOT;
+        ZDD neg = ZDD.BOT;
+        ZDD decided = ZDD.BOT;
+
+        for (int i = digits.length; i-- > 0;) {
+            final ZDD sign = ZDD.difference(_nod, _equ, _dif, digits[i], decided);
+            if ((i & 1) == 0) {
+                pos = ZDD.union(_nod, _equ, _uni, pos, sign);
+            } else {
+                neg = ZDD.union(_nod, _equ, _uni, neg, sign);
+            }
+            decided = ZDD.union(_nod, _equ, _uni, decided, digits[i]);
+        }
+
+        return new ZDD[] { pos, neg };
+    }
+
+    /**
+     * The support of a {@link ZDDNumber}, followed by the sets of the support counted more, and less, than a constant.
+     */
+    private static ZDD[] compare(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDNumber zddn, final long l)
+    {
+        final ZDDCacheO _int = new ZDDCacheO();
+
+        final ZDD support = support(_nod, _equ, _uni, zddn);
+        final ZDDNumber difference = negabinarySub(_nod, _equ, _int, _uni, _dif, zddn, negabinary(l, support));
+        final ZDD[] signs = signs(_nod, _equ, _uni, _dif, difference);
+
+        return new ZDD[] { support, signs[0], signs[1] };
+    }
+
+    /**
+     * <h3>Sets counted more than a constant</h3>
+     * 
+     * <p>
+     * The comparisons are computed digit-wise over the negabinary difference between the {@link ZDDNumber} and the constant spread over its support. Their
+     * results are restricted to the support : a set outside has a zero count, but there are infinitely many of them.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber}.
+     * @param l
+     *            the constant.
+     * @return the {@link ZDD} of the sets of the support counted more than <code>l</code> times.
+     */
+    public static ZDD greaterThan(final ZDDNumber zddn, final long l)
+    {
+        return compare(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), zddn, l)[1];
+    }
+
+    /**
+     * <h3>Sets of the support counted less than a constant</h3>
+     */
+    public static ZDD lessThan(final ZDDNumber zddn, final long l)
+    {
+        return compare(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), zddn, l)[2];
+    }
+
+    /**
+     * <h3>Sets of the support counted exactly a constant</h3>
+     */
+    public static ZDD equalTo(final ZDDNumber zddn, final long l)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        final ZDD[] zs = compare(_nod, _equ, _uni, _dif, zddn, l);
+
+        return ZDD.difference(_nod, _equ, _dif, zs[0], ZDD.union(_nod, _equ, _uni, zs[1], zs[2]));
+    }
+
+    /**
+     * <h3>Sets of the support not counted exactly a constant</h3>
+     */
+    public static ZDD notEqualTo(final ZDDNumber zddn, final long l)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        final ZDD[] zs = compare(_nod, _equ, _uni, _dif, zddn, l);
+
+        return ZDD.union(_nod, _equ, _uni, zs[1], zs[2]);
+    }
+
+    /**
+     * <h3>Sets of the support counted at least a constant</h3>
+     */
+    public static ZDD greaterOrEqual(final ZDDNumber zddn, final long l)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        final ZDD[] zs = compare(_nod, _equ, _uni, _dif, zddn, l);
+
+        return ZDD.difference(_nod, _equ, _dif, zs[0], zs[2]);
+    }
+
+    /**
+     * <h3>Sets of the support counted at most a constant</h3>
+     */
+    public static ZDD lessOrEqual(final ZDDNumber zddn, final long l)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        final ZDD[] zs = compare(_nod, _equ, _uni, _dif, zddn, l);
+
+        return ZDD.difference(_nod, _equ, _dif, zs[0], zs[1]);
+    }
+
+    /**
+     * <h3>Restriction of a {@link ZDDNumber} to a set of sets</h3>
+     * 
+     * @return the {@link ZDDNumber} counting the sets of <code>zdd</code> as <code>zddn</code> does, and the other sets zero times.
+     */
+    public static ZDDNumber restrict(final ZDDNumber zddn, final ZDD zdd)
+    {
+        return restrict(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), zddn, zdd);
+    }
+
+    static ZDDNumber restrict(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDNumber zddn, final ZDD zdd)
+    {
+        if (zddn == ZERO) {
+            return ZERO;
+        }
+        return number(ZDD.intersection(_nod, _equ, _int, zddn.digit, zdd), restrict(_nod, _equ, _int, zddn.number, zdd));
+    }
+
+    /**
+     * <h3>Negation of a signed negabinary {@link ZDDNumber}</h3>
+     */
+    public static ZDDNumber negate(final ZDDNumber zddn)
+    {
+        return negate(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), zddn);
+    }
+
+    static ZDDNumber negate(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDNumber zddn)
+    {
+        return negabinarySub(_nod, _equ, _int, _uni, _dif, ZERO, zddn);
+    }
+
+    /**
+     * <h3>Multiplication of a signed negabinary {@link ZDDNumber} by a <em>signed</em> <code>long</code></h3>
+     * 
+     * <p>
+     * Shift and add : the {@link ZDDNumber} is shifted once per negabinary digit of the coefficient, and added for each non zero digit, so that the cost grows
+     * with the number of digits of the coefficient rather than with its magnitude.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber} multiplicand.
+     * @param l
+     *            the coefficient.
+     * @return the {@link ZDDNumber} counting each set <code>l</code> times as often as <code>zddn</code>.
+     */
+    public static ZDDNumber multiply(final ZDDNumber zddn, final long l)
+    {
+        return multiply(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), zddn, l);
+    }
+
+    static ZDDNumber multiply(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDNumber zddn, final long l)
+    {
+        ZDDNumber product = ZERO;
+        ZDDNumber zn = zddn;
+
+        for (long c = l; c != 0L; c = c / -2L + (c % -2L < 0L ? 1L : 0L)) {
+            if (c % -2L != 0L) {
+                product = negabinaryAdd(_nod, _equ, _int, _uni, _dif, product, zn);
+            }
+            zn = shift(zn);
+        }
+
+        return product;
+    }
+
+    /**
+     * <h3>Truncating division of a signed negabinary {@link ZDDNumber} by a <em>signed</em> <code>long</code></h3>
+     * 
+     * <p>
+     * The count of every set is divided by <code>l</code>, rounding toward zero as the <code>/</code> operator on <code>long</code> does. The positive and
+     * negative counts are divided apart, as magnitudes, by restoring binary long division : from the most significant bit down, the sets whose remainder is at
+     * least the shifted divisor have it subtracted and the bit set in their quotient. A power of two divisor takes as many steps as there are quotient bits.
+     * </p>
+     * <p>
+     * Counts are assumed to fit in a <code>long</code>.
+     * </p>
+     * 
+     * @param zddn
+     *            the {@link ZDDNumber} dividend.
+     * @param l
+     *            the non zero divisor.
+     * @return the {@link ZDDNumber} of the truncated quotients.
+     * @throws ArithmeticException
+     *             if <code>l</code> is zero.
+     */
+    public static ZDDNumber divide(final ZDDNumber zddn, final long l)
+    {
+        if (l == 0L) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        if (l == Long.MIN_VALUE) {
+            // Only a count of Long.MIN_VALUE itself has a non zero quotient.
+            final ZDD support = support(_nod, _equ, _uni, zddn);
+            final ZDD[] signs = signs(_nod, _equ, _uni, _dif, negabinarySub(_nod, _equ, _int, _uni, _dif, zddn, negabinary(l, support)));
+            return negabinary(1L, ZDD.difference(_nod, _equ, _dif, support, ZDD.union(_nod, _equ, _uni, signs[0], signs[1])));
+        }
+
+        final long m = Math.abs(l);
+        final ZDD[] signs = signs(_nod, _equ, _uni, _dif, zddn);
+        final ZDDNumber pos = restrict(_nod, _equ, _int, zddn, signs[0]);
+        final ZDDNumber neg = negate(_nod, _equ, _int, _uni, _dif, restrict(_nod, _equ, _int, zddn, signs[1]));
+
+        final ZDDNumber quotient = negabinarySub(_nod, _equ, _int, _uni, _dif, divide(_nod, _equ, _int, _uni, _dif, pos, m), divide(_nod, _equ, _int, _uni, _dif, neg, m));
+
+        return l < 0L ? negate(_nod, _equ, _int, _uni, _dif, quotient) : quotient;
+    }
+
+    /**
+     * Restoring division of positive counts by a positive divisor. A negabinary number of <code>n</code> digits is less than <code>2^n</code> in magnitude,
+     * which bounds the quotient bits.
+     */
+    private static ZDDNumber divide(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDNumber zddn, final long m)
+    {
+        ZDDNumber remainder = zddn;
+        ZDDNumber quotient = ZERO;
+
+        for (int j = Math.min(length(zddn), 63); j-- > 0;) {
+
+            if (m > Long.MAX_VALUE >> j) {
+                continue;
+            }
+
+            final long step = m << j;
+            final ZDD support = support(_nod, _equ, _uni, remainder);
+            final ZDDNumber difference = negabinarySub(_nod, _equ, _int, _uni, _dif, remainder, negabinary(step, support));
+            final ZDD fits = ZDD.difference(_nod, _equ, _dif, support, signs(_nod, _equ, _uni, _dif, difference)[1]);
+
+            if (fits == ZDD.BOT) {
+                continue;
+            }
+
+            remainder = negabinarySub(_nod, _equ, _int, _uni, _dif, remainder, negabinary(step, fits));
+            quotient = negabinaryAdd(_nod, _equ, _int, _uni, _dif, quotient, negabinary(1L << j, fits));
+        }
+
+        return quotient;
+    }
+
+    /**
+     * <h3>Multiplication of two signed negabinary {@link ZDDNumber}</h3>
+     * 
+     * <p>
+     * The product of two integer valued families of sets counts the union of each set of the first with each set of the second, with the product of their
+     * counts. The cross union of the digits alone would merge the pairs yielding the same union : pairs of digits are multiplied as families of sets into a
+     * {@link ZDDNumber} counting those coincidences, and the partial products are shifted and added as in long multiplication.
+     * </p>
+     * 
+     * @param zddn1
+     *            left operand {@link ZDDNumber}.
+     * @param zddn2
+     *            right operand {@link ZDDNumber}.
+     * @return the {@link ZDDNumber} product of the above.
+     */
+    public static ZDDNumber multiply(final ZDDNumber zddn1, final ZDDNumber zddn2)
+    {
+        return multiply(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheM(), zddn1, zddn2);
+    }
+
+    static ZDDNumber multiply(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDCacheM _mul, final ZDDNumber zddn1, final ZDDNumber zddn2)
+    {
+        final ZDD[] digits1 = digits(zddn1);
+        final ZDD[] digits2 = digits(zddn2);
+
+        ZDDNumber product = ZERO;
+
+        for (int i = digits1.length; i-- > 0;) {
+
+            ZDDNumber partial = ZERO;
+
+            for (int j = digits2.length; j-- > 0;) {
+                partial = negabinaryAdd(_nod, _equ, _int, _uni, _dif, shift(partial), multiply(_nod, _equ, _int, _uni, _dif, _mul, digits1[i], digits2[j]));
+            }
+
+            product = negabinaryAdd(_nod, _equ, _int, _uni, _dif, shift(product), partial);
+        }
+
+        return product;
     }
 
     /**
-     * <h3>Compute the <em>negabinary</em> representation of a {@link ZDD} multiplied by a <em>signed</em> <code>long</code></h3>
-     * 
-     * @param l
-     *            the <code>long</code> holding the <em>signed</em> coefficient.
-     * @param zdd
-     *            the {@link ZDD} multiplicand.
-     * @return the {@link ZDDNumber} representing in negabinary <code>l</code> occurrences of <code>zdd</code>
+     * Multiplication of two families of sets, counting for each union of a set of the first with a set of the second the number of pairs yielding it.
      */
-    public static ZDDNumber negabinary(final long l, final ZDD zdd)
+    static ZDDNumber multiply(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDCacheO _uni, final ZDDCacheO _dif, final ZDDCacheM _mul, final ZDD zdd1, final ZDD zdd2)
     {
-        if (l == 0) {
+        if (zdd1 == ZDD.BOT) {
             return ZERO;
         }
 
-        final long q = l / -2L;
-        final long r = l + 2L * q;
+        if (zdd2 == ZDD.BOT) {
+            return ZERO;
+        }
 
-        final long l1;
-        ZDD digit;
+        if (zdd1 == ZDD.TOP) {
+            return number(zdd2, ZERO);
+        }
 
-        if (r > 0) {
-            digit = zdd;
-            l1 = q;
-        } else if (r < 0) {
-            digit = zdd;
-            l1 = q + 1;
-        } else {
-            digit = ZDD.BOT;
-            l1 = q;
+        if (zdd2 == ZDD.TOP) {
+            return number(zdd1, ZERO);
         }
 
-        return number(digit, negabinary(l1, zdd));
+        ZDDNumber zn = _mul.get(zdd1, zdd2);
+
+        if (zn == null) {
+
+            final long x1 = zdd1.x;
+            final long x2 = zdd2.x;
+
+            if (x1 < x2) {
+                zn = node(_nod, x1, multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1.b, zdd2), multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1.t, zdd2));
+            } else if (x1 > x2) {
+                zn = node(_nod, x2, multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1, zdd2.b), multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1, zdd2.t));
+            } else {
+                final ZDDNumber tt = multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1.t, zdd2.t);
+                final ZDDNumber tb = multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1.t, zdd2.b);
+                final ZDDNumber bt = multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1.b, zdd2.t);
+                final ZDDNumber t = negabinaryAdd(_nod, _equ, _int, _uni, _dif, tt, negabinaryAdd(_nod, _equ, _int, _uni, _dif, tb, bt));
+                zn = node(_nod, x1, multiply(_nod, _equ, _int, _uni, _dif, _mul, zdd1.b, zdd2.b), t);
+            }
+
+            _mul.put(zdd1, zdd2, zn);
+        }
+
+        return zn;
     }
 
     /**
-     * <h3>Counting the occurrences of a {@link ZDD} in a signed negabinary {@link ZDDNumber}</h3>
-     * 
-     * <p>
-     * Return the number of occurrences of a set of sets represented as a {@link ZDD} within a {@link ZDDNumber}.
-     * </p>
-     * 
-     * @param zddn
-     *            the {@link ZDDNumber} to be projected over the set of sets.
-     * @param zdd
-     *            the {@link ZDD} representing the set of sets.
-     * @return the <code>long</code> representing the number of occurrences of the set of sets within the {@link ZDDNumber}.
+     * Digit-wise node construction : the sets of <code>zddn0</code>, and those of <code>zddn1</code> with <code>x</code> added, which must precede all their
+     * elements.
      */
-    public static long negabinary(final ZDDNumber zddn, final ZDD zdd)
+    private static ZDDNumber node(final ZDDCacheN _nod, final long x, final ZDDNumber zddn0, final ZDDNumber zddn1)
     {
-        return negabinary(new ZDDCacheP(), new ZDDCacheP(), zddn, zdd);
-    }
+        if (zddn1 == ZERO) {
+            return zddn0;
+        }
 
-    static long negabinary(final ZDDCacheP eq, final ZDDCacheP in, final ZDDNumber zddn, final ZDD zdd)
-    {
-        if (zddn == ZERO) {
-            return 0L;
+        if (zddn0 == ZERO) {
+            return number(ZDD.zdd(_nod, x, ZDD.BOT, zddn1.digit), node(_nod, x, ZERO, zddn1.number));
         }
 
-        return (included(eq, in, zdd, zddn.digit) ? 1L : 0L) + negabinary(eq, in, zddn.number, zdd) * -2L;
+        return number(ZDD.zdd(_nod, x, zddn0.digit, zddn1.digit), node(_nod, x, zddn0.number, zddn1.number));
     }
 
     /**
@@ -261,6 +1005,161 @@ public final class ZDDNumber {
         return negabinaryAdd(_nod, _equ, _int, _uni, _dif, zddnd, shift(zddnb));
     }
 
+    /**
+     * <h3>Addition of two signed negabinary {@link ZDDNumber}, digits in parallel</h3>
+     * 
+     * <p>
+     * Each round of the adder intersects, unites and subtracts every pair of digits independently of the others : those operations are dispatched to a
+     * {@link ForkJoinPool}, and only the propagation of the carries from one round to the next remains sequential.
+     * </p>
+     */
+    public static ZDDNumber pNegabinaryAdd(final ZDDNumber zddn1, final ZDDNumber zddn2)
+    {
+        return pNegabinary(Runtime.getRuntime().availableProcessors(), true, zddn1, zddn2);
+    }
+
+    /**
+     * <h3>Subtraction of two signed negabinary {@link ZDDNumber}, digits in parallel</h3>
+     */
+    public static ZDDNumber pNegabinarySub(final ZDDNumber zddn1, final ZDDNumber zddn2)
+    {
+        return pNegabinary(Runtime.getRuntime().availableProcessors(), false, zddn1, zddn2);
+    }
+
+    private static ZDDNumber pNegabinary(final int processors, final boolean add, final ZDDNumber zddn1, final ZDDNumber zddn2)
+    {
+        final ForkJoinPool forkJoinPool = new ForkJoinPool(processors);
+
+        try {
+            return forkJoinPool.invoke(new RecursiveTask<ZDDNumber>() {
+
+                private static final long serialVersionUID = -4517093532860434618L;
+
+                @Override
+                protected ZDDNumber compute()
+                {
+                    return pNegabinary(add, zddn1, zddn2);
+                }
+            });
+        } finally {
+            awaitTermination(forkJoinPool);
+        }
+    }
+
+    /**
+     * Add, or subtract, alternating rounds as {@link #negabinaryAdd(ZDDNumber, ZDDNumber)} and {@link #negabinarySub(ZDDNumber, ZDDNumber)} do. Must run
+     * within a {@link ForkJoinPool}.
+     */
+    static ZDDNumber pNegabinary(final boolean add, final ZDDNumber zddn1, final ZDDNumber zddn2)
+    {
+        ZDD[] digits1 = digits(zddn1);
+        ZDD[] digits2 = digits(zddn2);
+        boolean adding = add;
+
+        for (;;) {
+
+            final int length = Math.max(digits1.length, digits2.length);
+            final ZDD[] result = new ZDD[length];
+            final ZDD[] carry = new ZDD[length + 1];
+
+            recursiveDigitsTask(adding, pad(digits1, length), pad(digits2, length), result, carry, 0, length).invoke();
+
+            final ZDDNumber shifted = number(carry, 1, length + 1);
+
+            if (shifted == ZERO) {
+                return number(result, 0, length);
+            }
+
+            digits1 = result;
+            digits2 = carry;
+            carry[0] = ZDD.BOT;
+            adding = !adding;
+        }
+    }
+
+    /**
+     * Digit-wise sum and carry, or difference and borrow, over a range of digits. The carry of digit <code>i</code> is stored at <code>i + 1</code>.
+     */
+    private static RecursiveAction recursiveDigitsTask(final boolean add, final ZDD[] digits1, final ZDD[] digits2, final ZDD[] result, final ZDD[] carry, final int begin, final int end)
+    {
+        return new RecursiveAction() {
+
+            private static final long serialVersionUID = 2209815370553946671L;
+
+            @Override
+            protected void compute()
+            {
+                final int length = end - begin;
+
+                if (length > 1) {
+
+                    final int middle = begin + (length >> 1);
+
+                    invokeAll(recursiveDigitsTask(add, digits1, digits2, result, carry, begin, middle), recursiveDigitsTask(add, digits1, digits2, result, carry, middle, end));
+
+                    return;
+                }
+
+                if (length > 0) {
+
+                    final ZDDCacheN _nod = new ZDDCacheN();
+                    final ZDDCacheP _equ = new ZDDCacheP();
+                    final ZDDCacheO _int = new ZDDCacheO();
+                    final ZDDCacheO _uni = new ZDDCacheO();
+                    final ZDDCacheO _dif = new ZDDCacheO();
+
+                    final ZDD d1 = digits1[begin];
+                    final ZDD d2 = digits2[begin];
+
+                    if (add) {
+                        final ZDD c = ZDD.intersection(_nod, _equ, _int, d1, d2);
+                        result[begin] = ZDD.difference(_nod, _equ, _dif, ZDD.union(_nod, _equ, _uni, d1, d2), c);
+                        carry[begin + 1] = c;
+                    } else {
+                        final ZDD b = ZDD.difference(_nod, _equ, _dif, d2, d1);
+                        result[begin] = ZDD.union(_nod, _equ, _uni, ZDD.difference(_nod, _equ, _dif, d1, d2), b);
+                        carry[begin + 1] = b;
+                    }
+                }
+            }
+        };
+    }
+
+    private static ZDD[] pad(final ZDD[] digits, final int length)
+    {
+        if (digits.length == length) {
+            return digits;
+        }
+
+        final ZDD[] padded = Arrays.copyOf(digits, length);
+
+        Arrays.fill(padded, digits.length, length, ZDD.BOT);
+
+        return padded;
+    }
+
+    /**
+     * The {@link ZDDNumber} of digits, least significant first.
+     */
+    static ZDDNumber number(final ZDD[] digits)
+    {
+        return number(digits, 0, digits.length);
+    }
+
+    /**
+     * The {@link ZDDNumber} of a range of digits, least significant first.
+     */
+    private static ZDDNumber number(final ZDD[] digits, final int begin, final int end)
+    {
+        ZDDNumber zn = ZERO;
+
+        for (int i = end; i-- > begin;) {
+            zn = number(digits[i], zn);
+        }
+
+        return zn;
+    }
+
     private static ZDDNumber intersection(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _int, final ZDDNumber zddn1, final ZDDNumber zddn2)
     {
         if (zddn1 == ZERO) {
@@ -320,12 +1219,15 @@ public final class ZDDNumber {
         final ZDDCacheO _int = new ZDDCacheO();
         final ZDDCacheO _dif = new ZDDCacheO();
 
-        return addSubtrees(filter, zt, zn, _nod, _equ, _cru, _uni, _int, _dif);
+        final ZDDCacheO _ons = new ZDDCacheO();
+        final ZDDCacheO _prj = new ZDDCacheO();
+
+        return addSubtrees(filter, zt, zn, _nod, _equ, _cru, _uni, _int, _dif, _ons, _prj);
     }
 
-    static ZDDNumber addSubtrees(final ZDD filter, final ZDDTerm zt, final ZDDNumber zn, final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheO _int, final ZDDCacheO _dif)
+    static ZDDNumber addSubtrees(final ZDD filter, final ZDDTerm zt, final ZDDNumber zn, final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheO _int, final ZDDCacheO _dif, final ZDDCacheO _ons, final ZDDCacheO _prj)
     {
-        return negabinaryAdd(_nod, _equ, _int, _uni, _dif, zt.subtrees(_nod, _equ, _cru, _uni, _int, filter), zn);
+        return negabinaryAdd(_nod, _equ, _int, _uni, _dif, zt.subtrees(_nod, _equ, _cru, _uni, _int, _ons, _prj, filter), zn);
     }
 
     public static ZDDNumber addSubtrees(final ZDDTerm zt, final ZDD filter, final ZDDNumber zn)
@@ -337,65 +1239,44 @@ public final class ZDDNumber {
         final ZDDCacheO _int = new ZDDCacheO();
         final ZDDCacheO _dif = new ZDDCacheO();
 
-        return addSubtrees(filter, zt, zn, _nod, _equ, _cru, _uni, _int, _dif);
+        final ZDDCacheO _ons = new ZDDCacheO();
+        final ZDDCacheO _prj = new ZDDCacheO();
+
+        return addSubtrees(filter, zt, zn, _nod, _equ, _cru, _uni, _int, _dif, _ons, _prj);
     }
 
-    public static long[] sumGroupBy(final ZDDTree[] ts, final Iterable<ZDDTerm> i)
+    public static ZDDNumber addSubtrees(final ZDDLimit limit, final ZDDTerm zt, final ZDDNumber zn)
     {
-        final int n = ts.length;
-        final ZDD[] zs = new ZDD[n];
-        final ZDD u;
-        {
-            final ZDDCacheN _nod = new ZDDCacheN();
-            final ZDDCacheP _equ = new ZDDCacheP();
-            final ZDDCacheO _cru = new ZDDCacheO();
-            final ZDDCacheO _uni = new ZDDCacheO();
-
-            for (int j = 0; j < n; ++j) {
-                zs[j] = ZDDTree.trees(ts[j], _nod, _equ, _cru, _uni);
-            }
-
-            u = ZDD.union(_nod, _equ, _uni, zs);
-        }
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _cru = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+        final ZDDCacheI _crk = new ZDDCacheI();
 
-        final ZDDNumber zn = sumSubtrees(u, i);
+        return addSubtrees(limit, zt, zn, _nod, _equ, _cru, _uni, _int, _dif, _crk);
+    }
 
-        final long[] ls = new long[n];
+    static ZDDNumber addSubtrees(final ZDDLimit limit, final ZDDTerm zt, final ZDDNumber zn, final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheO _int, final ZDDCacheO _dif, final ZDDCacheI _crk)
+    {
+        return negabinaryAdd(_nod, _equ, _int, _uni, _dif, zt.subtrees(_nod, _equ, _cru, _uni, _crk, limit), zn);
+    }
 
-        for (int j = 0; j < n; ++j) {
-            ls[j] = negabinary(zn, zs[j]);
-        }
+    public static long[] sumGroupBy(final ZDDTree[] ts, final Iterable<ZDDTerm> i)
+    {
+        final ZDD[] zs = trees(ts);
+        final ZDD u = ZDD.union(zs);
 
-        return ls;
+        return negabinary(sumSubtrees(u, i), zs);
     }
 
     public static long[] pSumGroupBy(final ZDDTree[] ts, final Iterable<ZDDTerm> i)
     {
-        final int n = ts.length;
-        final ZDD[] zs = new ZDD[n];
-        final ZDD u;
-        {
-            final ZDDCacheN _nod = new ZDDCacheN();
-            final ZDDCacheP _equ = new ZDDCacheP();
-            final ZDDCacheO _cru = new ZDDCacheO();
-            final ZDDCacheO _uni = new ZDDCacheO();
-
-            for (int j = 0; j < n; ++j) {
-                zs[j] = ZDDTree.trees(ts[j], _nod, _equ, _cru, _uni);
-            }
-
-            u = ZDD.union(_nod, _equ, _uni, zs);
-        }
-
-        final ZDDNumber zn = pSumSubtrees(u, i);
-
-        final long[] ls = new long[n];
-
-        for (int j = 0; j < n; ++j) {
-            ls[j] = negabinary(zn, zs[j]);
-        }
+        final ZDD[] zs = trees(ts);
+        final ZDD u = ZDD.union(zs);
 
-        return ls;
+        return pNegabinary(pSumSubtrees(u, i), zs);
     }
 
     public static ZDDNumber pSumSubtrees(final Iterable<ZDDTerm> i)
@@ -464,8 +1345,39 @@ public final class ZDDNumber {
             zns.offer(ZERO);
         }
 
+        final ZDDFilter index = new ZDDFilter(filter);
+
+        while (i.hasNext()) {
+            final ZDDTerm zt = i.next();
+            if (index.accepts(zt)) {
+                threads.submit(sumTask(filter, zns, zt));
+            }
+        }
+
+        awaitTermination(threads);
+
+        return pSum(processors, zns);
+    }
+
+    public static ZDDNumber pSumSubtrees(final ZDDLimit limit, final Iterable<ZDDTerm> i)
+    {
+        return pSumSubtrees(limit, i.iterator());
+    }
+
+    public static ZDDNumber pSumSubtrees(final ZDDLimit limit, final Iterator<ZDDTerm> i)
+    {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int sums = PROCESSOR_SPREAD * processors;
+
+        final ExecutorService threads = Executors.newFixedThreadPool(processors);
+        final BlockingQueue<ZDDNumber> zns = new ArrayBlockingQueue<ZDDNumber>(sums);
+
+        for (int j = 0; j < sums; ++j) {
+            zns.offer(ZERO);
+        }
+
         while (i.hasNext()) {
-            threads.submit(sumTask(filter, zns, i.next()));
+            threads.submit(sumTask(limit, zns, i.next()));
         }
 
         awaitTermination(threads);
@@ -516,7 +1428,7 @@ public final class ZDDNumber {
 
                     invokeAll(t1, t2);
 
-                    return ZDDNumber.negabinaryAdd(t1.join(), t2.join());
+                    return pNegabinary(true, t1.join(), t2.join());
                 }
 
                 if (length > 1) {
@@ -555,11 +1467,36 @@ public final class ZDDNumber {
         };
     }
 
-    private static void awaitTermination(final ExecutorService es)
+    private static Runnable sumTask(final ZDDLimit limit, final BlockingQueue<ZDDNumber> zns, final ZDDTerm zt)
+    {
+        final ZDDNumber zn;
+
+        try {
+            zn = zns.take();
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    zns.put(addSubtrees(limit, zt, zn));
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    static void awaitTermination(final ExecutorService es)
     {
         es.shutdown();
         try {
-            es.awaitTermination(100, TimeUnit.MILLISECONDS);
+            while (!es.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
         } catch (final InterruptedException e) {
             throw new RuntimeException(e);
         }
@@ -570,6 +1507,16 @@ public final class ZDDNumber {
         return sumSubtrees(i.iterator());
     }
 
+    /**
+     * <h3>Sum the subtrees of a sequence of {@link ZDDTerm}</h3>
+     * 
+     * <p>
+     * Counting workloads rarely see a negative coefficient : the sum is accumulated in unsigned binary, whose addition needs neither the extra digits nor the
+     * alternating recursion of the negabinary one, until a negative term shows up. The accumulator is then converted, once, to negabinary.
+     * </p>
+     * 
+     * @return the negabinary {@link ZDDNumber} sum.
+     */
     public static ZDDNumber sumSubtrees(final Iterator<ZDDTerm> i)
     {
         final ZDDCacheN _nod = new ZDDCacheN();
@@ -580,12 +1527,21 @@ public final class ZDDNumber {
         final ZDDCacheO _dif = new ZDDCacheO();
 
         ZDDNumber zn = ZERO;
+        boolean binary = true;
 
         while (i.hasNext()) {
-            zn = addSubtrees(i.next(), zn, _nod, _equ, _cru, _uni, _int, _dif);
+
+            final ZDDTerm zt = i.next();
+
+            if (binary && zt.l < 0L) {
+                zn = negabinary(_nod, _equ, _int, _uni, _dif, zn);
+                binary = false;
+            }
+
+            zn = binary ? binaryAdd(_nod, _equ, _int, _uni, _dif, zt.binarySubtrees(_nod, _equ, _cru, _uni), zn) : addSubtrees(zt, zn, _nod, _equ, _cru, _uni, _int, _dif);
         }
 
-        return zn;
+        return binary ? negabinary(_nod, _equ, _int, _uni, _dif, zn) : zn;
     }
 
     public static ZDDNumber sumSubtrees(final ZDD filter, final Iterable<ZDDTerm> i)
@@ -601,11 +1557,42 @@ public final class ZDDNumber {
         final ZDDCacheO _uni = new ZDDCacheO();
         final ZDDCacheO _int = new ZDDCacheO();
         final ZDDCacheO _dif = new ZDDCacheO();
+        final ZDDCacheO _ons = new ZDDCacheO();
+        final ZDDCacheO _prj = new ZDDCacheO();
+
+        final ZDDFilter index = new ZDDFilter(filter);
+
+        ZDDNumber zn = ZERO;
+
+        while (i.hasNext()) {
+            final ZDDTerm zt = i.next();
+            if (index.accepts(zt)) {
+                zn = addSubtrees(filter, zt, zn, _nod, _equ, _cru, _uni, _int, _dif, _ons, _prj);
+            }
+        }
+
+        return zn;
+    }
+
+    public static ZDDNumber sumSubtrees(final ZDDLimit limit, final Iterable<ZDDTerm> i)
+    {
+        return sumSubtrees(limit, i.iterator());
+    }
+
+    public static ZDDNumber sumSubtrees(final ZDDLimit limit, final Iterator<ZDDTerm> i)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _cru = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+        final ZDDCacheI _crk = new ZDDCacheI();
 
         ZDDNumber zn = ZERO;
 
         while (i.hasNext()) {
-            zn = addSubtrees(filter, i.next(), zn, _nod, _equ, _cru, _uni, _int, _dif);
+            zn = addSubtrees(limit, i.next(), zn, _nod, _equ, _cru, _uni, _int, _dif, _crk);
         }
 
         return zn;
@@ -0,0 +1,513 @@
+package net.ftod.zcube.zdd;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>Embedded non-blocking server in front of a {@link ZDDCube}</h1>
+ *
+ * <p>
+ * A single thread multiplexes all the connections with a {@link Selector}. Each request is an opcode byte followed by its payload, and requests may be
+ * pipelined : they are served in order, and replies are written in the same order.
+ * </p>
+ * <ul>
+ * <li>{@link #INGEST} : a term, as written by {@link ZDDTerm#write(java.io.DataOutputStream)}, added to the cube by a worker thread. No reply.</li>
+ * <li>{@link #COUNT} : a tree, as written by {@link ZDDTree#write(ZDDTree, java.io.DataOutputStream)}. Replies with the <code>long</code> count of its trees in the
+ * last snapshot.</li>
+ * <li>{@link #COUNTS} : an <code>int</code> number of trees, followed by the trees. Replies with one <code>long</code> count per tree.</li>
+ * <li>{@link #PUBLISH} : publish a new snapshot, including all the terms ingested before on the same connection. Replies with the <code>long</code> number
+ * of sets counted.</li>
+ * </ul>
+ * <p>
+ * The selector thread only parses requests and answers counts : terms are added to the cube by a pool of workers, so that ingest proceeds in parallel as
+ * {@link ZDDCube} allows, and snapshots are published by a thread of their own, once the terms ingested before on the connection are added. The requests
+ * following a publication wait for its reply, and a connection with too many terms being added is not read from until the workers catch up.
+ * </p>
+ * <p>
+ * Each connection has an input and an output buffer of fixed capacity. A request that does not fit in the input buffer, or whose reply does not fit in the
+ * output buffer, closes the connection, as does a tree deeper than {@link #DEPTH}. While the output buffer is too full for the next reply, the connection is
+ * not read from. Whatever fails while serving a connection, errors included, closes that connection only.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDServer implements Closeable {
+
+    public static final byte INGEST = 1;
+    public static final byte COUNT = 2;
+    public static final byte COUNTS = 3;
+    public static final byte PUBLISH = 4;
+
+    /**
+     * Default capacity, in bytes, of the buffers of a connection.
+     */
+    public static final int BUFFER = 65536;
+    /**
+     * Maximum number of terms of a connection being added at once.
+     */
+    public static final int INFLIGHT = 1024;
+    /**
+     * Maximum depth of the trees of a request.
+     */
+    public static final int DEPTH = 1024;
+
+    private final ZDDCube cube;
+    private final int buffer;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean open = true;
+
+    private final ExecutorService workers;
+    private final ExecutorService publisher;
+    private final Queue<Connection> resumed = new ConcurrentLinkedQueue<Connection>();
+
+    private final ZDDCacheN _nod = new ZDDCacheN();
+    private final ZDDCacheP _equ = new ZDDCacheP();
+    private final ZDDCacheP _inc = new ZDDCacheP();
+    private final ZDDCacheO _cru = new ZDDCacheO();
+    private final ZDDCacheO _uni = new ZDDCacheO();
+
+    public ZDDServer(final ZDDCube cube, final InetSocketAddress address) throws IOException {
+        this(cube, address, BUFFER);
+    }
+
+    /**
+     * Bind a server, and start serving.
+     *
+     * @param address
+     *            the address to listen on, with port zero for an ephemeral port.
+     * @param buffer
+     *            the capacity in bytes of the input and output buffers of each connection.
+     */
+    public ZDDServer(final ZDDCube cube, final InetSocketAddress address, final int buffer) throws IOException {
+        super();
+        this.cube = cube;
+        this.buffer = buffer;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+
+        server.configureBlocking(false);
+        server.socket().bind(address);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemon("zcube-server-worker"));
+        publisher = Executors.newSingleThreadExecutor(daemon("zcube-server-publisher"));
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                serve();
+            }
+        }, "zcube-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static ThreadFactory daemon(final String name)
+    {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * The port listened on.
+     */
+    public int port()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        open = false;
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        ZDDNumber.awaitTermination(workers);
+        ZDDNumber.awaitTermination(publisher);
+    }
+
+    /**
+     * Have the selector thread resume serving a connection.
+     */
+    private void reschedule(final Connection c)
+    {
+        resumed.add(c);
+        selector.wakeup();
+    }
+
+    private void serve()
+    {
+        try {
+            while (open) {
+
+                selector.select();
+
+                for (Connection c = resumed.poll(); c != null; c = resumed.poll()) {
+                    c.resume();
+                }
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    final Connection c = (Connection) key.attachment();
+
+                    try {
+                        if (key.isReadable() && c.channel.read(c.in) < 0) {
+                            c.close(key);
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            c.write();
+                        }
+                        c.serve();
+                        c.write();
+                        key.interestOps(c.interest());
+                    } catch (final Throwable t) {
+                        c.close(key);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (final SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (final IOException e) {
+                    continue;
+                }
+            }
+            try {
+                selector.close();
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        final SocketChannel channel = server.accept();
+
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final Connection c = new Connection(channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    private final class Connection {
+
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(buffer);
+        final ByteBuffer out = ByteBuffer.allocate(buffer);
+        SelectionKey key;
+        boolean blocked = false;
+
+        /**
+         * Terms handed to the workers and not added yet.
+         */
+        final AtomicInteger inflight = new AtomicInteger();
+        /**
+         * Set while requests wait for the workers to catch up.
+         */
+        volatile boolean throttled = false;
+        volatile Throwable failure = null;
+
+        /**
+         * Set while requests wait for the reply of a publication.
+         */
+        boolean publishing = false;
+        volatile boolean published = false;
+        volatile long sets;
+
+        Connection(final SocketChannel channel) {
+            super();
+            this.channel = channel;
+        }
+
+        /**
+         * Serve the complete requests buffered, in order, until one is incomplete or its reply does not fit.
+         */
+        void serve() throws IOException
+        {
+            if (publishing) {
+                return;
+            }
+
+            in.flip();
+
+            try {
+                blocked = false;
+
+                while (in.hasRemaining()) {
+
+                    final int remaining = in.remaining();
+                    final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(in.array(), in.arrayOffset() + in.position(), remaining));
+
+                    try {
+                        if (!request(dis)) {
+                            blocked = true;
+                            break;
+                        }
+                    } catch (final EOFException e) {
+                        if (remaining == in.capacity()) {
+                            throw new IOException("Request larger than the buffer");
+                        }
+                        break;
+                    }
+
+                    in.position(in.position() + remaining - dis.available());
+                }
+            } finally {
+                in.compact();
+            }
+        }
+
+        /**
+         * Read, and serve, one request.
+         *
+         * @return <code>false</code> if the request was left unserved, its reply not fitting in the output buffer.
+         */
+        private boolean request(final DataInputStream dis) throws IOException
+        {
+            final byte opcode = dis.readByte();
+
+            if (opcode == INGEST) {
+                if (inflight.get() >= INFLIGHT) {
+                    throttled = true;
+                    if (inflight.get() >= INFLIGHT) {
+                        return false;
+                    }
+                }
+                throttled = false;
+                ingest(ZDDTerm.read(dis, DEPTH));
+                return true;
+            }
+
+            if (opcode == COUNT) {
+                final ZDDTreeL t = ZDDTreeL.read(dis, DEPTH);
+                if (!fits(8)) {
+                    return false;
+                }
+                out.putLong(ZDDNumber.negabinary(_equ, _inc, cube.snapshot(), ZDDTreeL.trees(t, _nod, _equ, _cru, _uni)));
+                return true;
+            }
+
+            if (opcode == COUNTS) {
+                final int n = dis.readInt();
+                if (n < 0 || n > in.capacity()) {
+                    throw new IOException("Number of trees out of bounds " + n);
+                }
+                if (n > dis.available()) {
+                    // Each tree takes at least one byte : the request is incomplete.
+                    throw new EOFException();
+                }
+                final ZDD[] zdds = new ZDD[n];
+                for (int i = 0; i < n; ++i) {
+                    zdds[i] = ZDDTreeL.trees(ZDDTreeL.read(dis, DEPTH), _nod, _equ, _cru, _uni);
+                }
+                if (!fits(8L * n)) {
+                    return false;
+                }
+                for (final long l : ZDDNumber.negabinary(cube.snapshot(), zdds)) {
+                    out.putLong(l);
+                }
+                return true;
+            }
+
+            if (opcode == PUBLISH) {
+                if (!fits(8)) {
+                    return false;
+                }
+                publish();
+                return true;
+            }
+
+            throw new IOException("Unknown opcode " + opcode);
+        }
+
+        private void ingest(final ZDDTerm zt)
+        {
+            inflight.incrementAndGet();
+
+            workers.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        cube.add(zt);
+                    } catch (final Throwable t) {
+                        failure = t;
+                    } finally {
+                        added();
+                    }
+                }
+            });
+        }
+
+        private void added()
+        {
+            synchronized (this) {
+                inflight.decrementAndGet();
+                notifyAll();
+            }
+
+            if (throttled || failure != null) {
+                throttled = false;
+                reschedule(this);
+            }
+        }
+
+        /**
+         * Publish once the terms ingested before are added, the reply being written by {@link #resume()}.
+         */
+        private void publish()
+        {
+            publishing = true;
+            published = false;
+
+            publisher.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        synchronized (Connection.this) {
+                            while (inflight.get() > 0) {
+                                Connection.this.wait();
+                            }
+                        }
+                        if (failure == null) {
+                            sets = ZDD.size(ZDDNumber.support(cube.publish()));
+                        }
+                        published = true;
+                    } catch (final Throwable t) {
+                        failure = t;
+                    } finally {
+                        reschedule(Connection.this);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Back on the selector thread, after a publication or after the workers caught up.
+         */
+        void resume()
+        {
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (failure != null) {
+                close(key);
+                return;
+            }
+
+            try {
+                if (publishing) {
+                    if (!published) {
+                        return;
+                    }
+                    // Room for the reply was checked before publishing, and nothing was written since.
+                    out.putLong(sets);
+                    publishing = false;
+                }
+                serve();
+                write();
+                key.interestOps(interest());
+            } catch (final Throwable t) {
+                close(key);
+            }
+        }
+
+        private boolean fits(final long length) throws IOException
+        {
+            if (length > out.capacity()) {
+                throw new IOException("Reply larger than the buffer");
+            }
+
+            return length <= out.remaining();
+        }
+
+        void write() throws IOException
+        {
+            if (out.position() == 0) {
+                return;
+            }
+
+            out.flip();
+
+            try {
+                channel.write(out);
+            } finally {
+                out.compact();
+            }
+        }
+
+        int interest()
+        {
+            return (blocked || publishing || !in.hasRemaining() ? 0 : SelectionKey.OP_READ) | (out.position() > 0 ? SelectionKey.OP_WRITE : 0);
+        }
+
+        void close(final SelectionKey key)
+        {
+            key.cancel();
+
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                return;
+            }
+        }
+    }
+
+}
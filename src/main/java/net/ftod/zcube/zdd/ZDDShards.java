@@ -0,0 +1,241 @@
+package net.ftod.zcube.zdd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>Accumulator of {@link ZDDTerm} partitioned by root variable</h1>
+ *
+ * <p>
+ * Each set is routed by its smallest element, the root variable of its {@link ZDD} path, to one of a fixed number of shards, each one a {@link ZDDNumber} of
+ * its own. The subtrees of a term are split along the <em>else</em> chain of their {@link ZDD}, each part being added to its shard only : adds to different
+ * shards run in parallel, and each one walks a diagram a fraction of the size of the whole. There is no final merge : the shards together are the sum.
+ * </p>
+ * <p>
+ * The count of a single set is read from the one shard its root variable routes to, and the count of a set of sets from the shards its parts route to.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDShards {
+
+    private final ZDDNumber[] shards;
+    private final Object[] locks;
+
+    public ZDDShards() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ZDDShards(final int shards) {
+        super();
+
+        if (shards < 1) {
+            throw new IllegalArgumentException("No shard : " + shards);
+        }
+
+        this.shards = new ZDDNumber[shards];
+        this.locks = new Object[shards];
+
+        for (int k = 0; k < shards; ++k) {
+            this.shards[k] = ZDDNumber.ZERO;
+            this.locks[k] = new Object();
+        }
+    }
+
+    /**
+     * The number of shards.
+     */
+    public int shards()
+    {
+        return shards.length;
+    }
+
+    /**
+     * The shard a root variable routes to.
+     */
+    int route(final long x)
+    {
+        long h = x * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) ((h & Long.MAX_VALUE) % shards.length);
+    }
+
+    /**
+     * <h3>Split a {@link ZDD} by shard</h3>
+     *
+     * <p>
+     * The sets whose smallest element is <code>x</code> are those below the <em>then</em> branch of the node of <code>x</code> on the <em>else</em> chain. The
+     * chain is walked once, and each part rebuilt from its bottom up, so that the variables keep increasing downwards. The empty set goes to the first shard.
+     * </p>
+     */
+    ZDD[] split(final ZDDCacheN _nod, final ZDD zdd)
+    {
+        final List<ZDD> chain = new ArrayList<ZDD>();
+
+        ZDD z = zdd;
+
+        while (z != ZDD.BOT && z != ZDD.TOP) {
+            chain.add(z);
+            z = z.b;
+        }
+
+        final ZDD[] parts = new ZDD[shards.length];
+
+        Arrays.fill(parts, ZDD.BOT);
+
+        if (z == ZDD.TOP) {
+            parts[0] = ZDD.TOP;
+        }
+
+        for (int i = chain.size(); i-- > 0;) {
+            final ZDD n = chain.get(i);
+            final int k = route(n.x);
+            parts[k] = ZDD.zdd(_nod, n.x, parts[k], n.t);
+        }
+
+        return parts;
+    }
+
+    /**
+     * <h3>Add the subtrees of a term</h3>
+     *
+     * <p>
+     * Safe to call from many threads at once, each part being added under the lock of its own shard.
+     * </p>
+     */
+    public void add(final ZDDTerm zt)
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _cru = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        final ZDD[] parts = split(_nod, ZDDTreeL.subtrees(zt.t, _nod, _equ, _cru, _uni));
+
+        for (int k = 0; k < parts.length; ++k) {
+
+            if (parts[k] == ZDD.BOT) {
+                continue;
+            }
+
+            final ZDDNumber zn = ZDDNumber.negabinary(zt.l, parts[k]);
+
+            synchronized (locks[k]) {
+                shards[k] = ZDDNumber.negabinaryAdd(_nod, _equ, _int, _uni, _dif, zn, shards[k]);
+            }
+        }
+    }
+
+    public void add(final Iterable<ZDDTerm> i)
+    {
+        for (final ZDDTerm zt : i) {
+            add(zt);
+        }
+    }
+
+    /**
+     * <h3>The sum held by a shard</h3>
+     */
+    public ZDDNumber shard(final int k)
+    {
+        synchronized (locks[k]) {
+            return shards[k];
+        }
+    }
+
+    /**
+     * <h3>Count of a single set, read from its shard only</h3>
+     *
+     * @param xs
+     *            the elements of the set, sorted in increasing order, as given by {@link ZDDTree#set(ZDDTree)}.
+     */
+    public long count(final long[] xs)
+    {
+        return ZDDNumber.negabinary(shard(xs.length == 0 ? 0 : route(xs[0])), xs);
+    }
+
+    /**
+     * <h3>Count of a set of sets, read from the shards of its parts only</h3>
+     *
+     * <p>
+     * As by {@link ZDDNumber#negabinary(ZDDNumber, ZDD)}, the set of sets is counted in a digit when all of its sets are : digit by digit, when each part is
+     * included in the same digit of its shard.
+     * </p>
+     */
+    public long count(final ZDD zdd)
+    {
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheP _inc = new ZDDCacheP();
+        final ZDD[] parts = split(new ZDDCacheN(), zdd);
+        final ZDDNumber[] digits = new ZDDNumber[parts.length];
+
+        boolean more = false;
+
+        for (int k = 0; k < parts.length; ++k) {
+            if (parts[k] != ZDD.BOT) {
+                digits[k] = shard(k);
+                more = true;
+            }
+        }
+
+        long l = 0L;
+        long w = 1L;
+
+        while (more) {
+
+            boolean included = true;
+
+            more = false;
+
+            for (int k = 0; k < parts.length; ++k) {
+
+                if (digits[k] == null) {
+                    continue;
+                }
+
+                if (digits[k] == ZDDNumber.ZERO) {
+                    included = false;
+                    continue;
+                }
+
+                included = included && ZDD.included(_equ, _inc, parts[k], digits[k].digit);
+                digits[k] = digits[k].number;
+                more = more || digits[k] != ZDDNumber.ZERO;
+            }
+
+            if (included) {
+                l += w;
+            }
+
+            w *= -2L;
+        }
+
+        return l;
+    }
+
+    /**
+     * <h3>Count of the trees of a {@link ZDDTree}</h3>
+     */
+    public long count(final ZDDTree t)
+    {
+        return count(ZDDTree.trees(t));
+    }
+
+    /**
+     * <h3>The whole sum, merging the shards</h3>
+     */
+    public ZDDNumber number()
+    {
+        final List<ZDDNumber> zns = new ArrayList<ZDDNumber>(shards.length);
+
+        for (int k = 0; k < shards.length; ++k) {
+            zns.add(shard(k));
+        }
+
+        return zns.size() > 1 ? ZDDNumber.pSum(zns) : zns.get(0);
+    }
+
+}
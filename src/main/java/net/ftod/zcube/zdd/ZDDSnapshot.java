@@ -0,0 +1,384 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>Memory-mapped snapshot of {@link ZDD} roots</h1>
+ *
+ * <p>
+ * The nodes reachable from a sequence of roots, typically the digits of a {@link ZDDNumber}, are written once each, shared nodes included, children before
+ * parents. Each node is a fixed-width record of its variable and the indices of its two children, indices <code>0</code> and <code>1</code> standing for
+ * {@link ZDD#BOT} and {@link ZDD#TOP}.
+ * </p>
+ * <p>
+ * Opening a snapshot only maps the file : counts of single sets are read straight from the mapped records, and {@link ZDD} objects are built only on demand,
+ * by {@link #zdd(int)} and {@link #number()}.
+ * </p>
+ * <p>
+ * The header also carries a <code>long</code> mark for the application, such as the {@link ZDDLog} segment to replay from after loading the snapshot.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x5A444453;
+    private static final int VERSION = 1;
+    private static final int RECORD = 16;
+    private static final int CHUNK_POWER = 26;
+    private static final int CHUNK_MASK = (1 << CHUNK_POWER) - 1;
+
+    private final RandomAccessFile file;
+    private final long mark;
+    private final int[] roots;
+    private final int nodes;
+    private final MappedByteBuffer[] chunks;
+    private ZDD[] zdds = null;
+
+    private ZDDSnapshot(final File f) throws IOException {
+        super();
+        this.file = new RandomAccessFile(f, "r");
+
+        try {
+            if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+                throw new IOException("Not a snapshot " + f);
+            }
+
+            mark = file.readLong();
+            nodes = file.readInt();
+            roots = new int[file.readInt()];
+
+            for (int i = 0; i < roots.length; ++i) {
+                roots[i] = file.readInt();
+            }
+
+            final long begin = file.getFilePointer();
+            final FileChannel channel = file.getChannel();
+
+            chunks = new MappedByteBuffer[(nodes >>> CHUNK_POWER) + 1];
+
+            for (int c = 0; c < chunks.length; ++c) {
+                final long first = (long) c << CHUNK_POWER;
+                final long records = Math.min(1L << CHUNK_POWER, nodes - first);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, begin + first * RECORD, records * RECORD);
+            }
+        } catch (final IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * <h3>Map a snapshot</h3>
+     */
+    public static ZDDSnapshot open(final File f) throws IOException
+    {
+        return new ZDDSnapshot(f);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    public long mark()
+    {
+        return mark;
+    }
+
+    /**
+     * The number of roots.
+     */
+    public int roots()
+    {
+        return roots.length;
+    }
+
+    /**
+     * The number of nodes, {@link ZDD#BOT} and {@link ZDD#TOP} excluded.
+     */
+    public int nodes()
+    {
+        return nodes;
+    }
+
+    private long x(final int i)
+    {
+        final int r = i - 2;
+        return chunks[r >>> CHUNK_POWER].getLong((r & CHUNK_MASK) * RECORD);
+    }
+
+    private int b(final int i)
+    {
+        final int r = i - 2;
+        return chunks[r >>> CHUNK_POWER].getInt((r & CHUNK_MASK) * RECORD + 8);
+    }
+
+    private int t(final int i)
+    {
+        final int r = i - 2;
+        return chunks[r >>> CHUNK_POWER].getInt((r & CHUNK_MASK) * RECORD + 12);
+    }
+
+    /**
+     * <h3>Membership of a single set in a root, read from the mapped records</h3>
+     *
+     * @see ZDD#member(ZDD, long[])
+     */
+    public boolean member(final int root, final long[] xs)
+    {
+        int z = roots[root];
+        int i = 0;
+
+        while (z > 1) {
+            final long x = x(z);
+            if (i < xs.length && x == xs[i]) {
+                z = t(z);
+                ++i;
+            } else if (i < xs.length && x > xs[i]) {
+                return false;
+            } else {
+                z = b(z);
+            }
+        }
+
+        return z == 1 && i == xs.length;
+    }
+
+    /**
+     * <h3>Count of a single set, the roots being the digits of a signed negabinary {@link ZDDNumber}</h3>
+     *
+     * @see ZDDNumber#negabinary(ZDDNumber, long[])
+     */
+    public long count(final long[] xs)
+    {
+        long l = 0L;
+        long w = 1L;
+
+        for (int root = 0; root < roots.length; ++root) {
+            if (member(root, xs)) {
+                l += w;
+            }
+            w *= -2L;
+        }
+
+        return l;
+    }
+
+    /**
+     * <h3>Build the {@link ZDD} of a root</h3>
+     *
+     * <p>
+     * Nodes are built once, and shared by the later calls.
+     * </p>
+     */
+    public synchronized ZDD zdd(final int root)
+    {
+        if (zdds == null) {
+            zdds = new ZDD[nodes + 2];
+            zdds[0] = ZDD.BOT;
+            zdds[1] = ZDD.TOP;
+        }
+
+        return zdd(new ZDDCacheN(), roots[root]);
+    }
+
+    private ZDD zdd(final ZDDCacheN _nod, final int i)
+    {
+        ZDD z = zdds[i];
+
+        if (z == null) {
+            z = ZDD.zdd(_nod, x(i), zdd(_nod, b(i)), zdd(_nod, t(i)));
+            zdds[i] = z;
+        }
+
+        return z;
+    }
+
+    /**
+     * <h3>Build the {@link ZDDNumber} whose digits are the roots</h3>
+     */
+    public ZDDNumber number()
+    {
+        final ZDD[] digits = new ZDD[roots.length];
+
+        for (int root = 0; root < roots.length; ++root) {
+            digits[root] = zdd(root);
+        }
+
+        return ZDDNumber.number(digits);
+    }
+
+    /**
+     * <h3>Write the digits of a {@link ZDDNumber}</h3>
+     */
+    public static void write(final ZDDNumber zn, final long mark, final File f) throws IOException
+    {
+        write(ZDDNumber.digits(zn), mark, f);
+    }
+
+    /**
+     * <h3>Write {@link ZDD} roots</h3>
+     */
+    public static void write(final ZDD[] zdds, final long mark, final File f) throws IOException
+    {
+        write(zdds, mark, f, false);
+    }
+
+    /**
+     * @param force
+     *            whether to force the file to the disk before closing it.
+     */
+    private static void write(final ZDD[] zdds, final long mark, final File f, final boolean force) throws IOException
+    {
+        final FileOutputStream fos = new FileOutputStream(f);
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 262144));
+
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(mark);
+            write(zdds, dos);
+            dos.flush();
+            if (force) {
+                fos.getChannel().force(true);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * <h3>Replace a snapshot durably</h3>
+     *
+     * <p>
+     * The digits are written to a temporary file, forced to the disk, then moved over the snapshot atomically, and the move itself forced to the disk with
+     * the directory : after a crash, the snapshot is either the previous one or the new one, complete, and once the method returns it is the new one.
+     * </p>
+     */
+    public static void replace(final ZDDNumber zn, final long mark, final File f) throws IOException
+    {
+        final File tmp = new File(f.getPath() + ".tmp");
+
+        write(ZDDNumber.digits(zn), mark, tmp, true);
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        force(f.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Force the entries of a directory to the disk, so that the files created, renamed or deleted in it stay so after a crash.
+     */
+    static void force(final File directory) throws IOException
+    {
+        final FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write the number of nodes, the roots, then the node records.
+     */
+    static void write(final ZDD[] zdds, final DataOutputStream dos) throws IOException
+    {
+        final Map<ZDD, Integer> indices = new IdentityHashMap<ZDD, Integer>();
+        final List<ZDD> order = new ArrayList<ZDD>();
+
+        indices.put(ZDD.BOT, Integer.valueOf(0));
+        indices.put(ZDD.TOP, Integer.valueOf(1));
+
+        final int[] roots = new int[zdds.length];
+
+        for (int i = 0; i < zdds.length; ++i) {
+            roots[i] = index(indices, order, zdds[i]);
+        }
+
+        dos.writeInt(order.size());
+        dos.writeInt(roots.length);
+
+        for (final int root : roots) {
+            dos.writeInt(root);
+        }
+
+        for (final ZDD z : order) {
+            dos.writeLong(z.x);
+            dos.writeInt(indices.get(z.b).intValue());
+            dos.writeInt(indices.get(z.t).intValue());
+        }
+    }
+
+    /**
+     * Read back, eagerly, roots written by {@link #write(ZDD[], DataOutputStream)}.
+     */
+    static ZDD[] read(final DataInputStream dis) throws IOException
+    {
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDD[] nodes = new ZDD[dis.readInt() + 2];
+        final int[] roots = new int[dis.readInt()];
+
+        for (int i = 0; i < roots.length; ++i) {
+            roots[i] = dis.readInt();
+        }
+
+        nodes[0] = ZDD.BOT;
+        nodes[1] = ZDD.TOP;
+
+        for (int i = 2; i < nodes.length; ++i) {
+            final long x = dis.readLong();
+            final ZDD b = nodes[dis.readInt()];
+            final ZDD t = nodes[dis.readInt()];
+            nodes[i] = ZDD.zdd(_nod, x, b, t);
+        }
+
+        final ZDD[] zdds = new ZDD[roots.length];
+
+        for (int i = 0; i < roots.length; ++i) {
+            zdds[i] = nodes[roots[i]];
+        }
+
+        return zdds;
+    }
+
+    /**
+     * Number the nodes in post order, so that children precede their parents.
+     */
+    private static int index(final Map<ZDD, Integer> indices, final List<ZDD> order, final ZDD z)
+    {
+        final Integer index = indices.get(z);
+
+        if (index != null) {
+            return index.intValue();
+        }
+
+        index(indices, order, z.b);
+        index(indices, order, z.t);
+
+        final int i = order.size() + 2;
+
+        order.add(z);
+        indices.put(z, Integer.valueOf(i));
+
+        return i;
+    }
+
+}
@@ -0,0 +1,193 @@
+package net.ftod.zcube.zdd;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <h1>Accumulation of {@link ZDDTerm} under a budget of nodes</h1>
+ *
+ * <p>
+ * The subtrees of the terms are summed as by {@link ZDDNumber#sumSubtrees(Iterator)}, the number of nodes of the partial sum being checked now and then.
+ * Counting walks the whole partial sum, so the interval between two counts adapts : at the growth per term observed so far, it is half the terms that would
+ * fill the room left under the budget. Far from the budget the counts are few, and they close in as the partial sum nears it, each spill costing a few
+ * counts rather than one every few terms. Past the budget, the partial sum is written to a spill file as a {@link ZDDSnapshot}, and the sum starts again from zero with fresh caches, so that the nodes
+ * spilled can be collected. The spills are merged at the end, a few at a time, the merge of each group being spilled in turn until a single sum remains.
+ * </p>
+ * <p>
+ * Only the final sum needs to fit in memory along with the spills being merged : the terms are never held at once, and each partial sum stays about within
+ * the budget, past it by the growth of the terms added since the last count only.
+ * </p>
+ *
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDSpill {
+
+    /**
+     * Default minimum number of terms added between two counts of the nodes of the partial sum.
+     */
+    public static final int CHECK = 256;
+    /**
+     * Default number of spills merged at once.
+     */
+    public static final int FAN_IN = 8;
+
+    private ZDDSpill() {
+        super();
+    }
+
+    public static ZDDNumber sumSubtrees(final long budget, final File directory, final Iterable<ZDDTerm> i) throws IOException
+    {
+        return sumSubtrees(budget, directory, CHECK, FAN_IN, i.iterator());
+    }
+
+    public static ZDDNumber sumSubtrees(final long budget, final File directory, final Iterator<ZDDTerm> i) throws IOException
+    {
+        return sumSubtrees(budget, directory, CHECK, FAN_IN, i);
+    }
+
+    /**
+     * <h3>Sum the subtrees of a sequence of {@link ZDDTerm}, spilling partial sums to disk</h3>
+     *
+     * @param budget
+     *            the number of nodes past which the partial sum is spilled, as counted by {@link ZDDNumber#nodes(ZDDNumber)}.
+     * @param directory
+     *            the directory of the spill files, deleted once merged.
+     * @param check
+     *            the minimum number of terms added between two counts of the nodes.
+     * @param fanIn
+     *            the number of spills merged at once, at least two.
+     */
+    public static ZDDNumber sumSubtrees(final long budget, final File directory, final int check, final int fanIn, final Iterator<ZDDTerm> i)
+        throws IOException
+    {
+        if (fanIn < 2) {
+            throw new IllegalArgumentException("Fan-in below two : " + fanIn);
+        }
+
+        final List<File> spills = new ArrayList<File>();
+
+        try {
+            ZDDNumber zn = ZDDNumber.ZERO;
+            Caches caches = new Caches();
+            long n = 0L;
+            long next = check;
+
+            while (i.hasNext()) {
+
+                zn = ZDDNumber.addSubtrees(i.next(), zn, caches._nod, caches._equ, caches._cru, caches._uni, caches._int, caches._dif);
+
+                if (++n < next) {
+                    continue;
+                }
+
+                final long nodes = ZDDNumber.nodes(zn);
+
+                if (nodes > budget) {
+                    spills.add(spill(directory, zn));
+                    zn = ZDDNumber.ZERO;
+                    caches = new Caches();
+                    n = 0L;
+                    next = check;
+                } else {
+                    next = n + interval(n, nodes, budget, check);
+                }
+            }
+
+            if (spills.isEmpty()) {
+                return zn;
+            }
+
+            if (zn != ZDDNumber.ZERO) {
+                spills.add(spill(directory, zn));
+            }
+
+            return merge(directory, fanIn, spills);
+        } finally {
+            for (final File spill : spills) {
+                spill.delete();
+            }
+        }
+    }
+
+    /**
+     * The number of terms to add before the next count : half the terms that would fill the room left, at the nodes per term of the <code>n</code> terms of
+     * the partial sum, and at least <code>check</code>.
+     */
+    private static long interval(final long n, final long nodes, final long budget, final int check)
+    {
+        final double room = (double) (budget - nodes) / Math.max(1L, nodes) * n / 2.0;
+
+        return Math.max(check, (long) Math.min(room, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Merge the spills, a group of at most <code>fanIn</code> at a time, the merged groups being spilled and merged in turn.
+     */
+    private static ZDDNumber merge(final File directory, final int fanIn, final List<File> spills) throws IOException
+    {
+        for (;;) {
+
+            final List<File> group = new ArrayList<File>(spills.subList(0, Math.min(fanIn, spills.size())));
+            final List<ZDDNumber> zns = new ArrayList<ZDDNumber>(group.size());
+
+            for (final File spill : group) {
+                zns.add(load(spill));
+            }
+
+            final ZDDNumber zn = zns.size() > 1 ? ZDDNumber.pSum(zns) : zns.get(0);
+
+            spills.subList(0, group.size()).clear();
+
+            for (final File spill : group) {
+                spill.delete();
+            }
+
+            if (spills.isEmpty()) {
+                return zn;
+            }
+
+            spills.add(spill(directory, zn));
+        }
+    }
+
+    private static File spill(final File directory, final ZDDNumber zn) throws IOException
+    {
+        final File spill = File.createTempFile("zcube", ".spill", directory);
+
+        ZDDSnapshot.write(zn, 0L, spill);
+
+        return spill;
+    }
+
+    private static ZDDNumber load(final File spill) throws IOException
+    {
+        final ZDDSnapshot snapshot = ZDDSnapshot.open(spill);
+
+        try {
+            return snapshot.number();
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * The caches of an accumulation, dropped along with the partial sum they hold nodes of.
+     */
+    private static final class Caches {
+
+        final ZDDCacheN _nod = new ZDDCacheN();
+        final ZDDCacheP _equ = new ZDDCacheP();
+        final ZDDCacheO _cru = new ZDDCacheO();
+        final ZDDCacheO _uni = new ZDDCacheO();
+        final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _dif = new ZDDCacheO();
+
+        Caches() {
+            super();
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public final class ZDDTerm {
 
@@ -39,14 +40,32 @@ public final class ZDDTerm {
         return ZDDNumber.negabinary(l, ZDDTreeL.subtrees(t, _nod, _equ, _cru, _uni));
     }
 
+    /**
+     * The subtrees counted in unsigned binary, for a non negative coefficient.
+     */
+    ZDDNumber binarySubtrees(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni)
+    {
+        return ZDDNumber.binary(l, ZDDTreeL.subtrees(t, _nod, _equ, _cru, _uni));
+    }
+
     public static ZDDNumber subtrees(final ZDD z, final ZDDTerm zt)
     {
-        return zt.subtrees(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), z);
+        return zt.subtrees(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), z);
+    }
+
+    ZDDNumber subtrees(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheO _int, final ZDDCacheO _ons, final ZDDCacheO _prj, final ZDD filter)
+    {
+        return ZDDNumber.negabinary(l, ZDDTreeL.subtrees(filter, t, _nod, _equ, _cru, _uni, _int, _ons, _prj));
+    }
+
+    public static ZDDNumber subtrees(final ZDDLimit limit, final ZDDTerm zt)
+    {
+        return zt.subtrees(new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheI(), limit);
     }
 
-    ZDDNumber subtrees(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheO _int, final ZDD filter)
+    ZDDNumber subtrees(final ZDDCacheN _nod, final ZDDCacheP _equ, final ZDDCacheO _cru, final ZDDCacheO _uni, final ZDDCacheI _crk, final ZDDLimit limit)
     {
-        return ZDDNumber.negabinary(l, ZDD.intersection(_nod, _equ, _int, filter, ZDDTreeL.subtrees(t, _nod, _equ, _cru, _uni)));
+        return ZDDNumber.negabinary(l, ZDDTreeL.subtrees(limit, t, _nod, _equ, _cru, _uni, _crk));
     }
 
     public void write(final DataOutputStream dos) throws IOException
@@ -79,9 +98,108 @@ public final class ZDDTerm {
     }
 
     public static ZDDTerm read(final DataInputStream dis) throws IOException
+    {
+        return read(dis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read a term whose tree is at most <code>depth</code> levels deep.
+     */
+    static ZDDTerm read(final DataInputStream dis, final int depth) throws IOException
     {
         final long l = dis.readLong();
-        final ZDDTreeL t = ZDDTreeL.read(dis);
+        final ZDDTreeL t = ZDDTreeL.read(dis, depth);
+
+        return new ZDDTerm(l, t);
+    }
+
+    /**
+     * <h3>Read a sequence of {@link ZDDTerm} written by {@link #write(Iterator, File)}</h3>
+     * 
+     * <p>
+     * The sequence ends at the end of the stream, between two terms. A term cut short by the end of the stream, or that fails to be read, throws a
+     * {@link RuntimeException} wrapping the {@link IOException}.
+     * </p>
+     */
+    public static Iterator<ZDDTerm> iterator(final DataInputStream dis)
+    {
+        return new Iterator<ZDDTerm>() {
+
+            private ZDDTerm next = null;
+            private boolean end = false;
+
+            @Override
+            public boolean hasNext()
+            {
+                if (next != null) {
+                    return true;
+                }
+
+                if (end) {
+                    return false;
+                }
+
+                try {
+                    next = readOrEnd(dis);
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+
+                end = next == null;
+
+                return !end;
+            }
+
+            @Override
+            public ZDDTerm next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final ZDDTerm _next = next;
+                next = null;
+                return _next;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Read a term, or <code>null</code> at the end of the stream before its first byte.
+     */
+    private static ZDDTerm readOrEnd(final DataInputStream dis) throws IOException
+    {
+        final int b = dis.read();
+
+        if (b < 0) {
+            return null;
+        }
+
+        long l = b;
+
+        for (int i = 1; i < 8; ++i) {
+            l = l << 8 | dis.readUnsignedByte();
+        }
+
+        return new ZDDTerm(l, ZDDTreeL.read(dis));
+    }
+
+    void writeBlock(final DataOutputStream dos, final ZDDMapL dictionary) throws IOException
+    {
+        ZDDIO.writeZigZag(dos, l);
+        t.writeBlock(dos, dictionary);
+    }
+
+    static ZDDTerm readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+    {
+        final long l = ZDDIO.readZigZag(dis);
+        final ZDDTreeL t = ZDDTreeL.readBlock(dis, dictionary);
 
         return new ZDDTerm(l, t);
     }
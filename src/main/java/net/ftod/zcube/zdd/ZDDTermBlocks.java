@@ -0,0 +1,343 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <h1>Compact block encoding of {@link ZDDTerm} sequences</h1>
+ * 
+ * <p>
+ * Terms are grouped into blocks. Each block carries a dictionary of the nodes occurring more than once within it, most frequent first, so that repeated
+ * dimension values cost one or two bytes instead of eight. Coefficients are zigzag variable-length integers, child counts variable-length integers. A block
+ * may be deflated, in which case it is kept compressed only when that actually saves bytes.
+ * </p>
+ * 
+ * <pre>
+ * file    := MAGIC block* 0
+ * block   := varint(terms) byte(flags) varint(raw length) varint(stored length) byte*
+ * payload := varint(dictionary size) long* term*
+ * term    := zigzag(coefficient) tree
+ * </pre>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDTermBlocks {
+
+    private static final int MAGIC = 0x5A434231; // ZCB1
+    private static final int DEFLATED = 1;
+    private static final int CHUNK = 65536;
+    /**
+     * Default number of terms per block.
+     */
+    public static final int BLOCK_TERMS = 4096;
+
+    private ZDDTermBlocks() {
+        super();
+    }
+
+    public static void write(final Iterable<ZDDTerm> i, final File file, final boolean deflate) throws IOException
+    {
+        write(i.iterator(), file, deflate);
+    }
+
+    public static void write(final Iterator<ZDDTerm> i, final File file, final boolean deflate) throws IOException
+    {
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            write(i, dos, BLOCK_TERMS, deflate);
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * <h3>Write a sequence of {@link ZDDTerm} as compact blocks</h3>
+     * 
+     * @param i
+     *            the sequence of {@link ZDDTerm}.
+     * @param dos
+     *            the output.
+     * @param blockTerms
+     *            the maximum number of terms per block.
+     * @param deflate
+     *            whether to compress the blocks.
+     */
+    public static void write(final Iterator<ZDDTerm> i, final DataOutputStream dos, final int blockTerms, final boolean deflate) throws IOException
+    {
+        final ZDDTerm[] block = new ZDDTerm[blockTerms];
+
+        dos.writeInt(MAGIC);
+
+        while (i.hasNext()) {
+            int n = 0;
+            while (n < blockTerms && i.hasNext()) {
+                block[n++] = i.next();
+            }
+            writeBlock(block, n, dos, deflate);
+            Arrays.fill(block, 0, n, null);
+        }
+
+        ZDDIO.writeVarInt(dos, 0);
+    }
+
+    private static void writeBlock(final ZDDTerm[] block, final int n, final DataOutputStream dos, final boolean deflate) throws IOException
+    {
+        final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        {
+            final DataOutputStream pos = new DataOutputStream(raw);
+            final long[] dictionary = dictionary(block, n);
+            final ZDDMapL indices = new ZDDMapL(dictionary.length);
+
+            ZDDIO.writeVarInt(pos, dictionary.length);
+            for (int j = 0; j < dictionary.length; ++j) {
+                pos.writeLong(dictionary[j]);
+                indices.put(dictionary[j], j + 1);
+            }
+            for (int j = 0; j < n; ++j) {
+                block[j].writeBlock(pos, indices);
+            }
+            pos.flush();
+        }
+
+        final byte[] bytes = raw.toByteArray();
+        final byte[] stored = deflate ? deflate(bytes) : bytes;
+        final boolean deflated = stored.length < bytes.length;
+        final byte[] payload = deflated ? stored : bytes;
+
+        ZDDIO.writeVarInt(dos, n);
+        dos.writeByte(deflated ? DEFLATED : 0);
+        ZDDIO.writeVarInt(dos, bytes.length);
+        ZDDIO.writeVarInt(dos, payload.length);
+        dos.write(payload);
+    }
+
+    /**
+     * The nodes occurring more than once in a block, most frequent first.
+     */
+    private static long[] dictionary(final ZDDTerm[] block, final int n)
+    {
+        final ZDDMapL counts = new ZDDMapL();
+
+        for (int j = 0; j < n; ++j) {
+            block[j].t.count(counts);
+        }
+
+        final long[] nodes = counts.keys();
+        final long[] ranks = new long[nodes.length];
+
+        int m = 0;
+
+        for (int j = 0; j < nodes.length; ++j) {
+            final long count = counts.get(nodes[j], 0L);
+            if (count > 1L) {
+                ranks[m++] = Math.min(count, Integer.MAX_VALUE) << 32 | j;
+            }
+        }
+
+        Arrays.sort(ranks, 0, m);
+
+        final long[] dictionary = new long[m];
+
+        for (int j = 0; j < m; ++j) {
+            dictionary[j] = nodes[(int) ranks[m - 1 - j]];
+        }
+
+        return dictionary;
+    }
+
+    private static byte[] deflate(final byte[] bytes)
+    {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length >> 1);
+            final byte[] buffer = new byte[8192];
+
+            while (!deflater.finished()) {
+                baos.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(final byte[] stored, final int length) throws IOException
+    {
+        final Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(stored);
+
+            byte[] bytes = new byte[Math.min(length, CHUNK)];
+
+            int offset = 0;
+
+            while (offset < length) {
+                if (offset == bytes.length) {
+                    bytes = grow(bytes, length);
+                }
+                final int inflated = inflater.inflate(bytes, offset, bytes.length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated block");
+                }
+                offset += inflated;
+            }
+
+            return bytes;
+        } catch (final DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Read the stored bytes of a block, the buffer growing with the bytes actually read : a corrupt length fails at the end of the stream, rather than
+     * allocating it all at once.
+     */
+    private static byte[] read(final DataInputStream dis, final int length) throws IOException
+    {
+        byte[] bytes = new byte[Math.min(length, CHUNK)];
+
+        int offset = 0;
+
+        while (offset < length) {
+            if (offset == bytes.length) {
+                bytes = grow(bytes, length);
+            }
+            final int read = dis.read(bytes, offset, bytes.length - offset);
+            if (read < 0) {
+                throw new IOException("Truncated block");
+            }
+            offset += read;
+        }
+
+        return bytes;
+    }
+
+    private static byte[] grow(final byte[] bytes, final int length)
+    {
+        return Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+    }
+
+    /**
+     * <h3>Read a sequence of {@link ZDDTerm} written as compact blocks</h3>
+     * 
+     * <p>
+     * Blocks are decoded one at a time, as the returned {@link Iterator} is consumed. I/O failures surface as {@link IllegalStateException}.
+     * </p>
+     */
+    public static Iterator<ZDDTerm> read(final DataInputStream dis) throws IOException
+    {
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a ZDDTerm block stream");
+        }
+
+        return new Iterator<ZDDTerm>() {
+
+            private ZDDTerm[] block = new ZDDTerm[0];
+            private int next = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                while (block != null && next == block.length) {
+                    try {
+                        block = readBlock(dis);
+                    } catch (final IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    next = 0;
+                }
+
+                return block != null;
+            }
+
+            @Override
+            public ZDDTerm next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final ZDDTerm _next = block[next];
+                block[next++] = null;
+                return _next;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static ZDDTerm[] readBlock(final DataInputStream dis) throws IOException
+    {
+        final int n = ZDDIO.readVarInt(dis);
+
+        if (n == 0) {
+            return null;
+        }
+
+        final int flags = dis.readUnsignedByte();
+        final int length = ZDDIO.readVarInt(dis);
+        final int storedLength = ZDDIO.readVarInt(dis);
+        final boolean deflated = (flags & DEFLATED) != 0;
+
+        // Lengths come from the stream : each one is checked against what the block can hold before anything is allocated.
+
+        if (n < 0 || length < 0 || storedLength < 0 || !deflated && storedLength != length) {
+            throw new IOException("Corrupt block");
+        }
+
+        final byte[] stored = read(dis, storedLength);
+        final byte[] bytes = deflated ? inflate(stored, length) : stored;
+
+        // A term takes at least two bytes, its coefficient and the type of its tree.
+        if (n > bytes.length / 2) {
+            throw new IOException("Corrupt block");
+        }
+
+        final DataInputStream pis = new DataInputStream(new ByteArrayInputStream(bytes));
+        final int m = ZDDIO.readVarInt(pis);
+
+        if (m < 0 || m > pis.available() / 8) {
+            throw new IOException("Corrupt block");
+        }
+
+        final long[] dictionary = new long[m];
+
+        for (int j = 0; j < dictionary.length; ++j) {
+            dictionary[j] = pis.readLong();
+        }
+
+        final ZDDTerm[] block = new ZDDTerm[n];
+
+        for (int j = 0; j < n; ++j) {
+            block[j] = ZDDTerm.readBlock(pis, dictionary);
+        }
+
+        return block;
+    }
+
+}
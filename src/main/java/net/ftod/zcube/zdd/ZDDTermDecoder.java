@@ -0,0 +1,447 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <h1>Streaming decoder of serialized {@link ZDDTerm}</h1>
+ * 
+ * <p>
+ * Compile the bytes written by {@link ZDDTerm#write(DataOutputStream)} straight into the {@link ZDD} of the subtrees, without building the intermediate
+ * {@link ZDDTreeL} object graph. The tree is walked with an explicit stack that is reused from one term to the next, as are the operation caches.
+ * </p>
+ * <p>
+ * A decoder is <b>mutable</b> and must not be shared between threads.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDTermDecoder {
+
+    private static final int PROCESSOR_SPREAD = 8;
+    private static final int CHUNK_TERMS = 1024;
+
+    private static final ZDDTreeL.Type[] TYPES = ZDDTreeL.Type.values();
+
+    private final ZDDCacheN _nod = new ZDDCacheN();
+    private final ZDDCacheP _equ = new ZDDCacheP();
+    private final ZDDCacheO _cru = new ZDDCacheO();
+    private final ZDDCacheO _uni = new ZDDCacheO();
+    private final ZDDCacheO _int = new ZDDCacheO();
+    private final ZDDCacheO _dif = new ZDDCacheO();
+
+    private ZDDTreeL.Type[] _type = new ZDDTreeL.Type[16];
+    private long[] _node = new long[16];
+    private int[] _left = new int[16];
+    private ZDD[] _acc = new ZDD[16];
+    private int depth = 0;
+
+    public ZDDTermDecoder() {
+        super();
+    }
+
+    private void push(final ZDDTreeL.Type type, final long node, final int left, final ZDD acc)
+    {
+        if (depth == _type.length) {
+            final int n = depth << 1;
+            _type = Arrays.copyOf(_type, n);
+            _node = Arrays.copyOf(_node, n);
+            _left = Arrays.copyOf(_left, n);
+            _acc = Arrays.copyOf(_acc, n);
+        }
+
+        _type[depth] = type;
+        _node[depth] = node;
+        _left[depth] = left;
+        _acc[depth] = acc;
+        ++depth;
+    }
+
+    /**
+     * <h3>Decode a serialized tree into the {@link ZDD} of its subtrees</h3>
+     * 
+     * @param di
+     *            the input positioned on a tree, as written by {@link ZDDTreeL#write(DataOutputStream)}.
+     * @return the same {@link ZDD} as {@link ZDDTreeL#subtrees(ZDDTreeL)} of the tree that would have been read.
+     */
+    public ZDD subtrees(final DataInput di) throws IOException
+    {
+        depth = 0;
+
+        read: for (;;) {
+
+            final ZDDTreeL.Type type = TYPES[di.readByte()];
+
+            ZDD z;
+
+            if (type == ZDDTreeL.Type.BOT) {
+                z = ZDD.BOT;
+            } else if (type == ZDDTreeL.Type.TOP) {
+                z = ZDD.TOP;
+            } else if (type == ZDDTreeL.Type.NODE) {
+                push(type, di.readLong(), 1, null);
+                continue read;
+            } else {
+                final int n = di.readByte();
+                z = type == ZDDTreeL.Type.CROSS ? ZDD.TOP : ZDD.BOT;
+                if (n > 0) {
+                    push(type, 0L, n, z);
+                    continue read;
+                }
+            }
+
+            while (depth > 0) {
+
+                final int top = depth - 1;
+                final ZDDTreeL.Type _top = _type[top];
+
+                if (_top == ZDDTreeL.Type.NODE) {
+                    z = ZDD.union(_nod, _equ, _uni, ZDD.TOP, ZDD.crossUnion(_nod, _equ, _cru, _uni, ZDD.singleton(_nod, _node[top]), z));
+                } else if (_top == ZDDTreeL.Type.CROSS) {
+                    z = ZDD.crossUnion(_nod, _equ, _cru, _uni, _acc[top], z);
+                } else {
+                    z = ZDD.union(_nod, _equ, _uni, _acc[top], z);
+                }
+
+                if (--_left[top] > 0) {
+                    _acc[top] = z;
+                    continue read;
+                }
+
+                _acc[top] = null;
+                depth = top;
+            }
+
+            return z;
+        }
+    }
+
+    /**
+     * <h3>Decode a serialized {@link ZDDTerm} and add the occurrences of its subtrees to a {@link ZDDNumber}</h3>
+     * 
+     * @param di
+     *            the input positioned on a term, as written by {@link ZDDTerm#write(DataOutputStream)}.
+     * @param zn
+     *            the {@link ZDDNumber} accumulator.
+     * @return the sum of the accumulator and the subtrees of the decoded term.
+     */
+    public ZDDNumber addSubtrees(final DataInput di, final ZDDNumber zn) throws IOException
+    {
+        final long l = di.readLong();
+        return ZDDNumber.negabinaryAdd(_nod, _equ, _int, _uni, _dif, ZDDNumber.negabinary(l, subtrees(di)), zn);
+    }
+
+    /**
+     * <h3>Sum the subtrees of a stream of serialized {@link ZDDTerm}</h3>
+     */
+    public static ZDDNumber sumSubtrees(final DataInputStream in) throws IOException
+    {
+        final DataInputStream dis = markable(in);
+        final ZDDTermDecoder decoder = new ZDDTermDecoder();
+
+        ZDDNumber zn = ZDDNumber.ZERO;
+
+        while (hasTerm(dis)) {
+            zn = decoder.addSubtrees(dis, zn);
+        }
+
+        return zn;
+    }
+
+    /**
+     * <h3>Sum in parallel the subtrees of a stream of serialized {@link ZDDTerm}</h3>
+     * 
+     * <p>
+     * The reading thread only slices the stream into chunks of raw terms. Decoding happens in the worker threads, each chunk with one decoder. A chunk that
+     * fails, even with an {@link Error}, fails the sum.
+     * </p>
+     */
+    public static ZDDNumber pSumSubtrees(final DataInputStream in) throws IOException
+    {
+        final DataInputStream dis = markable(in);
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int sums = PROCESSOR_SPREAD * processors;
+
+        final ExecutorService threads = Executors.newFixedThreadPool(processors);
+        final BlockingQueue<ZDDNumber> zns = new ArrayBlockingQueue<ZDDNumber>(sums);
+
+        final List<Future<?>> chunks = new ArrayList<Future<?>>();
+
+        for (int j = 0; j < sums; ++j) {
+            zns.offer(ZDDNumber.ZERO);
+        }
+
+        try {
+            for (;;) {
+                final byte[] chunk = chunk(dis);
+                if (chunk == null) {
+                    break;
+                }
+                chunks.add(threads.submit(sumTask(zns, chunk)));
+            }
+        } finally {
+            ZDDNumber.awaitTermination(threads);
+        }
+
+        for (final Future<?> f : chunks) {
+            get(f);
+        }
+
+        return ZDDNumber.pSum(zns);
+    }
+
+    /**
+     * <h3>Sum in parallel the subtrees of a stream of serialized {@link ZDDTerm}, checkpointing periodically</h3>
+     * 
+     * <p>
+     * The stream is cut into epochs of about <code>interval</code> bytes, each with its own partial sums. Once all the chunks of an epoch are decoded, a
+     * separate thread adds its partial sums to the total, and writes the total along with the offset reached as a {@link ZDDSnapshot}, replacing the
+     * checkpoint file durably. Workers go on decoding the next epoch meanwhile, but not the one after : at most two epochs are held in memory.
+     * </p>
+     * <p>
+     * A chunk that fails, even with an {@link Error}, fails the reduction : no checkpoint is written past it, so that a resumed reduction decodes it again.
+     * </p>
+     * 
+     * @param offset
+     *            the offset of the stream in the file, for a resumed reduction.
+     * @param zn
+     *            the sum of the terms before the offset.
+     */
+    static ZDDNumber pSumSubtrees(final DataInputStream in, final long offset, final ZDDNumber zn, final File checkpoint, final long interval) throws IOException
+    {
+        final DataInputStream dis = markable(in);
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int sums = PROCESSOR_SPREAD * processors;
+
+        final ExecutorService threads = Executors.newFixedThreadPool(processors);
+        final ExecutorService checkpointer = Executors.newSingleThreadExecutor();
+        final ZDDNumber[] total = { zn };
+        final boolean[] failed = { false };
+        final List<Future<?>> checkpoints = new ArrayList<Future<?>>();
+
+        long position = offset;
+
+        try {
+            for (boolean more = true; more;) {
+
+                final Epoch epoch = new Epoch(sums);
+                final long end = position + interval;
+
+                while (position < end) {
+                    final byte[] chunk = chunk(dis);
+                    if (chunk == null) {
+                        more = false;
+                        break;
+                    }
+                    position += chunk.length;
+                    epoch.submit(threads, sumTask(epoch.zns, chunk));
+                }
+
+                final long reached = position;
+
+                checkpoints.add(checkpointer.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        if (failed[0]) {
+                            throw new IOException("Previous epoch failed");
+                        }
+                        try {
+                            epoch.await();
+                        } catch (final IOException e) {
+                            failed[0] = true;
+                            throw e;
+                        }
+                        epoch.zns.add(total[0]);
+                        total[0] = ZDDNumber.pSum(epoch.zns);
+                        ZDDSnapshot.replace(total[0], reached, checkpoint);
+                        return null;
+                    }
+                }));
+
+                // Wait for the checkpoint before the last one, so that at most two epochs are held.
+                if (checkpoints.size() > 1) {
+                    get(checkpoints.get(checkpoints.size() - 2));
+                }
+            }
+        } finally {
+            ZDDNumber.awaitTermination(threads);
+            ZDDNumber.awaitTermination(checkpointer);
+        }
+
+        for (final Future<?> f : checkpoints) {
+            get(f);
+        }
+
+        return total[0];
+    }
+
+    private static void get(final Future<?> f) throws IOException
+    {
+        try {
+            f.get();
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * The partial sums of an epoch, and the chunks being decoded into them.
+     */
+    private static final class Epoch {
+
+        final BlockingQueue<ZDDNumber> zns;
+        private final List<Future<?>> chunks = new ArrayList<Future<?>>();
+
+        Epoch(final int sums) {
+            super();
+            zns = new ArrayBlockingQueue<ZDDNumber>(sums + 1);
+            for (int j = 0; j < sums; ++j) {
+                zns.offer(ZDDNumber.ZERO);
+            }
+        }
+
+        /**
+         * Called by the reading thread only, before the epoch is handed to the checkpointer.
+         */
+        void submit(final ExecutorService threads, final Runnable task)
+        {
+            chunks.add(threads.submit(task));
+        }
+
+        /**
+         * Wait for all the chunks, failing if any did.
+         */
+        void await() throws IOException
+        {
+            for (final Future<?> f : chunks) {
+                get(f);
+            }
+        }
+    }
+
+    private static Runnable sumTask(final BlockingQueue<ZDDNumber> zns, final byte[] chunk)
+    {
+        final ZDDNumber zn;
+
+        try {
+            zn = zns.take();
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new Runnable() {
+            @Override
+            public void run()
+            {
+                ZDDNumber sum = zn;
+
+                try {
+                    sum = sumSubtrees(new DataInputStream(new ByteArrayInputStream(chunk)), zn);
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    try {
+                        zns.put(sum);
+                    } catch (final InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+    }
+
+    private static ZDDNumber sumSubtrees(final DataInputStream dis, final ZDDNumber zn) throws IOException
+    {
+        final ZDDTermDecoder decoder = new ZDDTermDecoder();
+
+        ZDDNumber sum = zn;
+
+        while (dis.available() > 0) {
+            sum = decoder.addSubtrees(dis, sum);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Copy at most {@link #CHUNK_TERMS} raw terms, or return <code>null</code> at the end of the stream.
+     */
+    private static byte[] chunk(final DataInputStream dis) throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+
+        int n = 0;
+
+        while (n < CHUNK_TERMS && hasTerm(dis)) {
+            copyTerm(dis, dos);
+            ++n;
+        }
+
+        return n == 0 ? null : baos.toByteArray();
+    }
+
+    private static DataInputStream markable(final DataInputStream dis)
+    {
+        return dis.markSupported() ? dis : new DataInputStream(new BufferedInputStream(dis));
+    }
+
+    private static boolean hasTerm(final DataInputStream dis) throws IOException
+    {
+        dis.mark(1);
+
+        if (dis.read() < 0) {
+            return false;
+        }
+
+        dis.reset();
+
+        return true;
+    }
+
+    /**
+     * Copy one serialized {@link ZDDTerm} without decoding it, counting the trees still to be copied rather than recursing.
+     */
+    static void copyTerm(final DataInput di, final DataOutput dos) throws IOException
+    {
+        dos.writeLong(di.readLong());
+
+        for (int pending = 1; pending > 0; --pending) {
+
+            final byte b = di.readByte();
+            final ZDDTreeL.Type type = TYPES[b];
+
+            dos.writeByte(b);
+
+            if (type == ZDDTreeL.Type.NODE) {
+                dos.writeLong(di.readLong());
+                ++pending;
+            } else if (type == ZDDTreeL.Type.CROSS || type == ZDDTreeL.Type.SUM) {
+                final byte n = di.readByte();
+                dos.writeByte(n);
+                pending += n;
+            }
+        }
+    }
+
+}
@@ -6,7 +6,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
 
 public abstract class ZDDTermReducer<T> {
 
@@ -16,49 +15,12 @@ public abstract class ZDDTermReducer<T> {
 
     abstract protected T reduce(Iterator<ZDDTerm> i);
 
-    private final T reduce(final File file) throws IOException
+    private final T reduceBlocks(final File file) throws IOException
     {
         final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 262144));
 
         try {
-            return reduce(new Iterator<ZDDTerm>() {
-
-                private ZDDTerm next = null;
-
-                @Override
-                public boolean hasNext()
-                {
-                    if (next != null) {
-                        return true;
-                    }
-
-                    try {
-                        next = ZDDTerm.read(dis);
-                    } catch (final IOException e) {
-                        return false;
-                    }
-
-                    return true;
-                }
-
-                @Override
-                public ZDDTerm next()
-                {
-                    if (next == null) {
-                        throw new NoSuchElementException();
-                    }
-
-                    final ZDDTerm _next = next;
-                    next = null;
-                    return _next;
-                }
-
-                @Override
-                public void remove()
-                {
-                    throw new UnsupportedOperationException();
-                }
-            });
+            return reduce(ZDDTermBlocks.read(dis));
         } finally {
             dis.close();
         }
@@ -72,9 +34,82 @@ public abstract class ZDDTermReducer<T> {
         }
     };
 
+    /**
+     * Sum the subtrees of the {@link ZDDTerm} in a file written by {@link ZDDTerm#write(Iterator, File)}, decoding the terms straight into {@link ZDD}.
+     */
     public static ZDDNumber sumSubtrees(final File file) throws IOException
     {
-        return SUM_SUBTREES.reduce(file);
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 262144));
+
+        try {
+            return ZDDTermDecoder.pSumSubtrees(dis);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Default number of bytes of terms between checkpoints.
+     */
+    public static final long CHECKPOINT = 256L << 20;
+
+    /**
+     * Sum the subtrees of the {@link ZDDTerm} in a file written by {@link ZDDTerm#write(Iterator, File)}, checkpointing the partial sum and the offset reached
+     * every <code>interval</code> bytes of terms.
+     */
+    public static ZDDNumber sumSubtrees(final File file, final File checkpoint, final long interval) throws IOException
+    {
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 262144));
+
+        try {
+            return ZDDTermDecoder.pSumSubtrees(dis, 0L, ZDDNumber.ZERO, checkpoint, interval);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Resume {@link #sumSubtrees(File, File, long)} from the last checkpoint written, or start it if there is none.
+     */
+    public static ZDDNumber resume(final File file, final File checkpoint, final long interval) throws IOException
+    {
+        if (!checkpoint.exists()) {
+            return sumSubtrees(file, checkpoint, interval);
+        }
+
+        final long offset;
+        final ZDDNumber zn;
+        final ZDDSnapshot snapshot = ZDDSnapshot.open(checkpoint);
+
+        try {
+            offset = snapshot.mark();
+            zn = snapshot.number();
+        } finally {
+            snapshot.close();
+        }
+
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 262144));
+
+        try {
+            for (long skip = offset; skip > 0L;) {
+                final long skipped = dis.skip(skip);
+                if (skipped <= 0L) {
+                    throw new IOException("Checkpoint beyond the end of " + file);
+                }
+                skip -= skipped;
+            }
+            return ZDDTermDecoder.pSumSubtrees(dis, offset, zn, checkpoint, interval);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Sum the subtrees of the {@link ZDDTerm} in a file written by {@link ZDDTermBlocks}.
+     */
+    public static ZDDNumber sumSubtreesBlocks(final File file) throws IOException
+    {
+        return SUM_SUBTREES.reduceBlocks(file);
     }
 
 }
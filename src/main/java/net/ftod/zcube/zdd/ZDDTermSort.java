@@ -0,0 +1,396 @@
+package net.ftod.zcube.zdd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <h1>External sort of {@link ZDDTerm} files by tree shape</h1>
+ * 
+ * <p>
+ * The small operation caches only pay off when consecutive terms share structure. Sorting a term file by the structural key of its trees, crosses and sums
+ * in canonical order, brings equal and similar trees next to each other. Terms are sorted in memory up to a budget, spilled as sorted runs, and the runs
+ * merged, at most {@link #FAN_IN} at once : while there are more, groups of runs are merged into longer runs, so that the files open and the buffers held
+ * stay bounded whatever the size of the input. Equal trees may be combined while merging, adding up their coefficients.
+ * </p>
+ * 
+ * @author <a href="mailto:fabien.todescato@gmail.com">Fabien Todescato</a>
+ */
+public final class ZDDTermSort {
+
+    /**
+     * Default in-memory budget, in bytes.
+     */
+    public static final long MEMORY = 64L << 20;
+    /**
+     * Maximum number of runs merged at once.
+     */
+    public static final int FAN_IN = 64;
+
+    private static final int RECORD_OVERHEAD = 64;
+    private static final int BUFFER = 65536;
+
+    private ZDDTermSort() {
+        super();
+    }
+
+    private static final class Record implements Comparable<Record> {
+
+        final long key;
+        final long l;
+        final byte[] tree;
+
+        Record(final long key, final long l, final byte[] tree) {
+            super();
+            this.key = key;
+            this.l = l;
+            this.tree = tree;
+        }
+
+        static Record record(final ZDDTerm zt) throws IOException
+        {
+            final ZDDTreeL t = zt.t.canonical();
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final DataOutputStream dos = new DataOutputStream(baos);
+
+            t.write(dos);
+            dos.flush();
+
+            return new Record(t.key(), zt.l, baos.toByteArray());
+        }
+
+        boolean sameTree(final Record r)
+        {
+            return compareTo(r) == 0;
+        }
+
+        @Override
+        public int compareTo(final Record r)
+        {
+            if (key != r.key) {
+                return key < r.key ? -1 : 1;
+            }
+
+            final int n = Math.min(tree.length, r.tree.length);
+
+            for (int i = 0; i < n; ++i) {
+                final int c = (tree[i] & 0xFF) - (r.tree[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+
+            return tree.length - r.tree.length;
+        }
+
+        void writeRun(final DataOutputStream dos) throws IOException
+        {
+            dos.writeLong(key);
+            dos.writeLong(l);
+            dos.writeInt(tree.length);
+            dos.write(tree);
+        }
+
+        static Record readRun(final DataInputStream dis) throws IOException
+        {
+            final long key;
+
+            try {
+                key = dis.readLong();
+            } catch (final EOFException e) {
+                return null;
+            }
+
+            final long l = dis.readLong();
+            final byte[] tree = new byte[dis.readInt()];
+
+            dis.readFully(tree);
+
+            return new Record(key, l, tree);
+        }
+
+        void writeTerm(final DataOutputStream dos) throws IOException
+        {
+            dos.writeLong(l);
+            dos.write(tree);
+        }
+    }
+
+    private static final class Run implements Comparable<Run> {
+
+        final DataInputStream dis;
+        Record head;
+
+        Run(final File file) throws IOException {
+            super();
+            this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER));
+            this.head = Record.readRun(dis);
+        }
+
+        boolean advance() throws IOException
+        {
+            head = Record.readRun(dis);
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(final Run r)
+        {
+            return head.compareTo(r.head);
+        }
+    }
+
+    /**
+     * Accumulate records into the output, combining consecutive equal trees if required.
+     */
+    private static final class Sink {
+
+        private final DataOutputStream dos;
+        private final boolean combine;
+        private Record last = null;
+        private long l = 0L;
+
+        Sink(final DataOutputStream dos, final boolean combine) {
+            super();
+            this.dos = dos;
+            this.combine = combine;
+        }
+
+        void add(final Record r, final boolean run) throws IOException
+        {
+            if (!combine) {
+                write(r, run);
+                return;
+            }
+
+            if (last != null && last.sameTree(r)) {
+                l += r.l;
+                return;
+            }
+
+            flush(run);
+
+            last = r;
+            l = r.l;
+        }
+
+        void flush(final boolean run) throws IOException
+        {
+            if (last != null && l != 0L) {
+                write(new Record(last.key, l, last.tree), run);
+            }
+
+            last = null;
+        }
+
+        private void write(final Record r, final boolean run) throws IOException
+        {
+            if (run) {
+                r.writeRun(dos);
+            } else {
+                r.writeTerm(dos);
+            }
+        }
+    }
+
+    public static void sort(final File in, final File out, final boolean combine) throws IOException
+    {
+        sort(in, out, MEMORY, combine);
+    }
+
+    /**
+     * <h3>Sort a file of {@link ZDDTerm} by tree shape</h3>
+     * 
+     * @param in
+     *            the file of terms, as written by {@link ZDDTerm#write(Iterator, File)}.
+     * @param out
+     *            the file of sorted terms, in the same format.
+     * @param memory
+     *            the approximate number of bytes of terms sorted in memory before spilling a run to disk.
+     * @param combine
+     *            whether to combine terms with equal trees, adding up their coefficients.
+     * @throws IOException
+     *             if the file ends within a term, or fails to be read : only a clean end of file between two terms ends the input.
+     */
+    public static void sort(final File in, final File out, final long memory, final boolean combine) throws IOException
+    {
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(in), 262144));
+
+        try {
+            sort(ZDDTerm.iterator(dis), out, memory, combine);
+        } catch (final RuntimeException e) {
+            // Thrown by the iterator for a term that fails to be read.
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            dis.close();
+        }
+    }
+
+    public static void sort(final Iterator<ZDDTerm> i, final File out, final long memory, final boolean combine) throws IOException
+    {
+        final File directory = out.getAbsoluteFile().getParentFile();
+        final List<File> runs = new ArrayList<File>();
+        final List<Record> records = new ArrayList<Record>();
+
+        try {
+            long size = 0L;
+
+            while (i.hasNext()) {
+                final Record r = Record.record(i.next());
+
+                records.add(r);
+                size += r.tree.length + RECORD_OVERHEAD;
+
+                if (size >= memory) {
+                    runs.add(spill(records, directory, combine));
+                    records.clear();
+                    size = 0L;
+                }
+            }
+
+            Collections.sort(records);
+
+            final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out), 262144));
+
+            try {
+                final Sink sink = new Sink(dos, combine);
+
+                if (runs.isEmpty()) {
+                    for (final Record r : records) {
+                        sink.add(r, false);
+                    }
+                } else {
+                    if (!records.isEmpty()) {
+                        runs.add(spill(records, directory, combine));
+                        records.clear();
+                    }
+                    while (runs.size() > FAN_IN) {
+                        runs.add(merge(runs, directory, combine));
+                    }
+                    merge(runs, sink, false);
+                }
+
+                sink.flush(false);
+            } finally {
+                dos.close();
+            }
+        } finally {
+            for (final File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private static File spill(final List<Record> records, final File directory, final boolean combine) throws IOException
+    {
+        Collections.sort(records);
+
+        final File run = File.createTempFile("zcube", ".run", directory);
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER));
+
+        try {
+            final Sink sink = new Sink(dos, combine);
+
+            for (final Record r : records) {
+                sink.add(r, true);
+            }
+
+            sink.flush(true);
+        } finally {
+            dos.close();
+        }
+
+        return run;
+    }
+
+    /**
+     * Merge the first {@link #FAN_IN} runs into a new run, deleting them.
+     */
+    private static File merge(final List<File> runs, final File directory, final boolean combine) throws IOException
+    {
+        final List<File> group = runs.subList(0, FAN_IN);
+        final File run = File.createTempFile("zcube", ".run", directory);
+
+        try {
+            final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER));
+
+            try {
+                final Sink sink = new Sink(dos, combine);
+                merge(group, sink, true);
+                sink.flush(true);
+            } finally {
+                dos.close();
+            }
+        } catch (final IOException e) {
+            run.delete();
+            throw e;
+        }
+
+        for (final File file : group) {
+            file.delete();
+        }
+
+        group.clear();
+
+        return run;
+    }
+
+    private static void merge(final List<File> files, final Sink sink, final boolean run) throws IOException
+    {
+        final PriorityQueue<Run> heap = new PriorityQueue<Run>(Math.max(1, files.size()));
+        final List<Run> runs = new ArrayList<Run>(files.size());
+
+        try {
+            for (final File file : files) {
+                final Run r = new Run(file);
+                runs.add(r);
+                if (r.head != null) {
+                    heap.add(r);
+                }
+            }
+
+            while (!heap.isEmpty()) {
+                final Run r = heap.poll();
+                sink.add(r.head, run);
+                if (r.advance()) {
+                    heap.add(r);
+                }
+            }
+        } finally {
+            for (final Run r : runs) {
+                r.dis.close();
+            }
+        }
+    }
+
+    /**
+     * Sort a term file from the command line : <code>in out [memory in MB] [combine]</code>.
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage : ZDDTermSort in out [memory in MB] [combine]");
+        }
+
+        final long memory = args.length > 2 ? Long.parseLong(args[2]) << 20 : MEMORY;
+        final boolean combine = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        sort(new File(args[0]), new File(args[1]), memory, combine);
+    }
+
+}
@@ -1,5 +1,7 @@
 package net.ftod.zcube.zdd;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
@@ -148,6 +150,14 @@ public abstract class ZDDTree {
         return t.treeL(1L);
     }
 
+    /**
+     * <h3>Write a {@link ZDDTree} in the binary format of the trees of {@link ZDDTerm#write(DataOutputStream)}</h3>
+     */
+    public static void write(final ZDDTree t, final DataOutputStream dos) throws IOException
+    {
+        treeL(t).write(dos);
+    }
+
     protected static final ZDDTreeL[] treeL(final long h, final ZDDTree[] ts)
     {
         final int n = ts.length;
@@ -179,6 +189,47 @@ public abstract class ZDDTree {
         return ZDDTreeL.trees(treeL(t), _nod, _equ, _cru, _uni);
     }
 
+    /**
+     * <h3>Compile a single tree to its set of nodes</h3>
+     * 
+     * <p>
+     * The sorted array of nodes is the fastest way to count the occurrences of a single tree, see {@link ZDDNumber#negabinary(ZDDNumber, long[])}.
+     * </p>
+     * 
+     * @param t
+     *            the {@link ZDDTree}, that must generate exactly one tree.
+     * @return the nodes of the tree, sorted in increasing order.
+     * @throws IllegalArgumentException
+     *             when the {@link ZDDTree} does not generate exactly one tree.
+     */
+    public static long[] set(final ZDDTree t)
+    {
+        final ZDD zdd = trees(t);
+
+        int n = 0;
+        ZDD z = zdd;
+
+        while (z != ZDD.BOT && z != ZDD.TOP && z.b == ZDD.BOT) {
+            ++n;
+            z = z.t;
+        }
+
+        if (z != ZDD.TOP) {
+            throw new IllegalArgumentException("Not a single tree : " + t);
+        }
+
+        final long[] xs = new long[n];
+
+        z = zdd;
+
+        for (int i = 0; i < n; ++i) {
+            xs[i] = z.x;
+            z = z.t;
+        }
+
+        return xs;
+    }
+
     /**
      * <h3>Set of the trees generated by a {@link Collection} of {@link ZDDTree}</h3>
      * 
@@ -240,8 +291,24 @@ public abstract class ZDDTree {
         final ZDDCacheO _cru = new ZDDCacheO();
         final ZDDCacheO _uni = new ZDDCacheO();
         final ZDDCacheO _int = new ZDDCacheO();
+        final ZDDCacheO _ons = new ZDDCacheO();
+        final ZDDCacheO _prj = new ZDDCacheO();
+
+        return ZDDTreeL.subtrees(z, treeL(t), _nod, _equ, _cru, _uni, _int, _ons, _prj);
+    }
 
-        return ZDD.intersection(_nod, _equ, _int, z, subtrees(t, _nod, _equ, _cru, _uni));
+    /**
+     * <h3>Bounded set of subtrees generated by a {@link ZDDTree}</h3>
+     * 
+     * @param limit
+     *            the bounds on the size, depth and number of dimensions of the subtrees.
+     * @param t
+     *            the {@link ZDDTree} the subtrees of which are computed.
+     * @return the {@link ZDD} for the set of subtrees generated by the tree within the limit.
+     */
+    public static ZDD subtrees(final ZDDLimit limit, final ZDDTree t)
+    {
+        return ZDDTreeL.subtrees(limit, treeL(t));
     }
 
     private static ZDDTree[] array(final Collection<ZDDTree> c)
@@ -3,6 +3,7 @@ package net.ftod.zcube.zdd;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 abstract class ZDDTreeL {
 
@@ -35,41 +36,73 @@ abstract class ZDDTreeL {
 
         BOT {
             @Override
-            ZDDTreeL read(final DataInputStream dis)
+            ZDDTreeL read(final DataInputStream dis, final int depth)
+            {
+                return ZDDTreeLBOT._read(dis);
+            }
+
+            @Override
+            ZDDTreeL readBlock(final DataInputStream dis, final long[] dictionary)
             {
                 return ZDDTreeLBOT._read(dis);
             }
         },
         TOP {
             @Override
-            ZDDTreeL read(final DataInputStream dis)
+            ZDDTreeL read(final DataInputStream dis, final int depth)
+            {
+                return ZDDTreeLTOP._read(dis);
+            }
+
+            @Override
+            ZDDTreeL readBlock(final DataInputStream dis, final long[] dictionary)
             {
                 return ZDDTreeLTOP._read(dis);
             }
         },
         NODE {
             @Override
-            ZDDTreeL read(final DataInputStream dis) throws IOException
+            ZDDTreeL read(final DataInputStream dis, final int depth) throws IOException
             {
-                return ZDDTreeLNode._read(dis);
+                return ZDDTreeLNode._read(dis, depth);
+            }
+
+            @Override
+            ZDDTreeL readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+            {
+                return ZDDTreeLNode._readBlock(dis, dictionary);
             }
         },
         CROSS {
             @Override
-            ZDDTreeL read(final DataInputStream dis) throws IOException
+            ZDDTreeL read(final DataInputStream dis, final int depth) throws IOException
+            {
+                return ZDDTreeLCross._read(dis, depth);
+            }
+
+            @Override
+            ZDDTreeL readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
             {
-                return ZDDTreeLCross._read(dis);
+                return ZDDTreeLCross._readBlock(dis, dictionary);
             }
         },
         SUM {
             @Override
-            ZDDTreeL read(final DataInputStream dis) throws IOException
+            ZDDTreeL read(final DataInputStream dis, final int depth) throws IOException
+            {
+                return ZDDTreeLSum._read(dis, depth);
+            }
+
+            @Override
+            ZDDTreeL readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
             {
-                return ZDDTreeLSum._read(dis);
+                return ZDDTreeLSum._readBlock(dis, dictionary);
             }
         };
 
-        abstract ZDDTreeL read(DataInputStream dis) throws IOException;
+        abstract ZDDTreeL read(DataInputStream dis, int depth) throws IOException;
+
+        abstract ZDDTreeL readBlock(DataInputStream dis, long[] dictionary) throws IOException;
 
     }
 
@@ -85,7 +118,19 @@ abstract class ZDDTreeL {
 
     public static final ZDDTreeL read(final DataInputStream dis) throws IOException
     {
-        return Type.values()[dis.readByte()].read(dis);
+        return read(dis, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read a tree at most <code>depth</code> levels deep, a deeper tree being rejected before it exhausts the stack of the recursive descent.
+     */
+    static final ZDDTreeL read(final DataInputStream dis, final int depth) throws IOException
+    {
+        if (depth < 1) {
+            throw new IOException("Tree deeper than the limit");
+        }
+
+        return Type.values()[dis.readByte()].read(dis, depth - 1);
     }
 
     protected static final void writeArray(final ZDDTreeL[] ts, final DataOutputStream dos) throws IOException
@@ -97,20 +142,210 @@ abstract class ZDDTreeL {
         }
     }
 
-    protected static final ZDDTreeL[] readArray(final DataInputStream dis) throws IOException
+    protected static final ZDDTreeL[] readArray(final DataInputStream dis, final int depth) throws IOException
     {
         final int n = dis.readByte();
         final ZDDTreeL[] ts = new ZDDTreeL[n];
         for (int i = 0; i < n; ++i) {
-            ts[i] = read(dis);
+            ts[i] = read(dis, depth);
         }
         return ts;
     }
 
+    /**
+     * <h3>Compact encoding</h3>
+     * 
+     * <p>
+     * Nodes found in the dictionary are written as their variable-length index plus one, other nodes as a zero followed by their <code>long</code>
+     * identifier. Child counts are variable-length too.
+     * </p>
+     */
+    protected abstract void _writeBlock(DataOutputStream dos, ZDDMapL dictionary) throws IOException;
+
+    /**
+     * Count the occurrences of the nodes of the tree, building up the dictionary of a block.
+     */
+    protected abstract void count(ZDDMapL counts);
+
+    /**
+     * Whether some node of the tree is among the given nodes.
+     */
+    protected abstract boolean meets(ZDDMapL nodes);
+
+    public final void writeBlock(final DataOutputStream dos, final ZDDMapL dictionary) throws IOException
+    {
+        dos.writeByte(type().ordinal());
+        _writeBlock(dos, dictionary);
+    }
+
+    public static final ZDDTreeL readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+    {
+        final Type[] types = Type.values();
+        final int type = dis.readByte();
+
+        if (type < 0 || type >= types.length) {
+            throw new IOException("Corrupt block");
+        }
+
+        return types[type].readBlock(dis, dictionary);
+    }
+
+    protected static final void writeArrayBlock(final ZDDTreeL[] ts, final DataOutputStream dos, final ZDDMapL dictionary) throws IOException
+    {
+        final int n = ts.length;
+        ZDDIO.writeVarInt(dos, n);
+        for (int i = 0; i < n; ++i) {
+            ts[i].writeBlock(dos, dictionary);
+        }
+    }
+
+    protected static final ZDDTreeL[] readArrayBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+    {
+        final int n = ZDDIO.readVarInt(dis);
+
+        // Each tree takes at least a byte of the block.
+        if (n < 0 || n > dis.available()) {
+            throw new IOException("Corrupt block");
+        }
+
+        final ZDDTreeL[] ts = new ZDDTreeL[n];
+        for (int i = 0; i < n; ++i) {
+            ts[i] = readBlock(dis, dictionary);
+        }
+        return ts;
+    }
+
+    protected static final void countArray(final ZDDTreeL[] ts, final ZDDMapL counts)
+    {
+        for (final ZDDTreeL t : ts) {
+            t.count(counts);
+        }
+    }
+
+    protected static final boolean meetsArray(final ZDDTreeL[] ts, final ZDDMapL nodes)
+    {
+        for (final ZDDTreeL t : ts) {
+            if (t.meets(nodes)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <h3>Structural key</h3>
+     * 
+     * <p>
+     * A hash of the tree that does not depend on the order of the operands of crosses and sums, so that trees equal up to that order share a key.
+     * </p>
+     */
+    protected abstract long key();
+
+    /**
+     * <h3>Canonical form</h3>
+     * 
+     * <p>
+     * The same tree, the operands of crosses and sums ordered by their structural key.
+     * </p>
+     */
+    protected abstract ZDDTreeL canonical();
+
+    /**
+     * The operands of a cross, whose subtrees are the cross union of theirs, or the tree itself.
+     */
+    ZDDTreeL[] factors()
+    {
+        return new ZDDTreeL[] { this };
+    }
+
+    protected static final long mix(final long h, final long x)
+    {
+        final long m = (h ^ x) * 0x9E3779B97F4A7C15L;
+        return m ^ m >>> 29;
+    }
+
+    protected static final long keyArray(final long seed, final ZDDTreeL[] ts)
+    {
+        final int n = ts.length;
+        final long[] keys = new long[n];
+
+        for (int i = 0; i < n; ++i) {
+            keys[i] = ts[i].key();
+        }
+
+        Arrays.sort(keys);
+
+        long key = mix(seed, n);
+
+        for (int i = 0; i < n; ++i) {
+            key = mix(key, keys[i]);
+        }
+
+        return key;
+    }
+
+    protected static final ZDDTreeL[] canonicalArray(final ZDDTreeL[] ts)
+    {
+        final int n = ts.length;
+        final ZDDTreeL[] cs = new ZDDTreeL[n];
+        final long[] keys = new long[n];
+
+        for (int i = 0; i < n; ++i) {
+            cs[i] = ts[i].canonical();
+            keys[i] = cs[i].key();
+        }
+
+        // Insertion sort, operand arrays are short.
+        for (int i = 1; i < n; ++i) {
+            final ZDDTreeL c = cs[i];
+            final long k = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > k) {
+                cs[j + 1] = cs[j];
+                keys[j + 1] = keys[j];
+                --j;
+            }
+            cs[j + 1] = c;
+            keys[j + 1] = k;
+        }
+
+        return cs;
+    }
+
     protected abstract ZDD trees(ZDDCacheN nod, ZDDCacheP eq, ZDDCacheO cu, ZDDCacheO un);
 
     protected abstract ZDD subtrees(ZDDCacheN nod, ZDDCacheP eq, ZDDCacheO cu, ZDDCacheO un);
 
+    /**
+     * <h3>Filtered set of subtrees</h3>
+     * 
+     * <p>
+     * Same as the intersection of the filter with {@link #subtrees(ZDDCacheN, ZDDCacheP, ZDDCacheO, ZDDCacheO)}, but the filter is walked alongside the tree
+     * so that the branches that cannot lead to a member of the filter are never built.
+     * </p>
+     */
+    protected abstract ZDD subtrees(ZDD f, ZDDCacheN nod, ZDDCacheP eq, ZDDCacheO cu, ZDDCacheO un, ZDDCacheO in, ZDDCacheO on, ZDDCacheO pr);
+
+    /**
+     * <h3>Bounded set of subtrees</h3>
+     * 
+     * <p>
+     * The subtrees within the depth and number of nodes left, graded by the number of dimensions they involve.
+     * </p>
+     */
+    protected abstract ZDD[] subtrees(ZDDLimit limit, int depth, int nodes, ZDDCacheN nod, ZDDCacheP eq, ZDDCacheO cu, ZDDCacheO un, ZDDCacheI ck);
+
+    protected static final ZDD[] graded(final ZDDLimit limit, final ZDD z)
+    {
+        final ZDD[] zs = new ZDD[limit.grades()];
+
+        Arrays.fill(zs, ZDD.BOT);
+        zs[0] = z;
+
+        return zs;
+    }
+
     protected static final ZDD[] mapTrees(final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDTreeL[] ts)
     {
         final int n = ts.length;
@@ -135,6 +370,44 @@ abstract class ZDDTreeL {
         return zdds;
     }
 
+    /**
+     * The set of nodes of each tree as a {@link ZDD}, or <code>null</code> when some node occurs in more than one tree.
+     */
+    protected static final ZDD[] mapNodes(final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDTreeL[] ts)
+    {
+        final int n = ts.length;
+        final ZDD[] zdds = new ZDD[n];
+        final ZDDMapL all = new ZDDMapL();
+
+        for (int i = 0; i < n; ++i) {
+            final ZDDMapL counts = new ZDDMapL();
+            ts[i].count(counts);
+
+            final long[] nodes = counts.keys();
+
+            for (final long node : nodes) {
+                if (all.containsKey(node)) {
+                    return null;
+                }
+                all.put(node, 1L);
+            }
+
+            zdds[i] = ZDD.set(nod, eq, cu, un, nodes);
+        }
+
+        return zdds;
+    }
+
+    public static ZDD subtrees(final ZDDLimit limit, final ZDDTreeL t)
+    {
+        return subtrees(limit, t, new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheI());
+    }
+
+    static ZDD subtrees(final ZDDLimit limit, final ZDDTreeL t, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheI ck)
+    {
+        return ZDD.union(nod, eq, un, t.subtrees(limit, limit.depth, limit.nodes, nod, eq, cu, un, ck));
+    }
+
     public static ZDD trees(final ZDDTreeL t)
     {
         return trees(t, new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO());
@@ -174,13 +447,12 @@ abstract class ZDDTreeL {
 
     public static ZDD subtrees(final ZDD z, final ZDDTreeL t)
     {
-        final ZDDCacheN nod = new ZDDCacheN();
-        final ZDDCacheP eq = new ZDDCacheP();
-        final ZDDCacheO cu = new ZDDCacheO();
-        final ZDDCacheO un = new ZDDCacheO();
-        final ZDDCacheO in = new ZDDCacheO();
+        return subtrees(z, t, new ZDDCacheN(), new ZDDCacheP(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO(), new ZDDCacheO());
+    }
 
-        return ZDD.intersection(nod, eq, in, z, subtrees(t, nod, eq, cu, un));
+    static ZDD subtrees(final ZDD z, final ZDDTreeL t, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheO in, final ZDDCacheO on, final ZDDCacheO pr)
+    {
+        return t.subtrees(z, nod, eq, cu, un, in, on, pr);
     }
 
 }
@@ -210,6 +482,36 @@ final class ZDDTreeLBOT extends ZDDTreeL {
         return INSTANCE;
     }
 
+    @Override
+    protected void _writeBlock(final DataOutputStream dos, final ZDDMapL dictionary)
+    {
+        // Nothing to write
+    }
+
+    @Override
+    protected void count(final ZDDMapL counts)
+    {
+        // No node to count
+    }
+
+    @Override
+    protected boolean meets(final ZDDMapL nodes)
+    {
+        return false;
+    }
+
+    @Override
+    protected long key()
+    {
+        return 0x2545F4914F6CDD1DL;
+    }
+
+    @Override
+    protected ZDDTreeL canonical()
+    {
+        return this;
+    }
+
     @Override
     protected ZDD trees(final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un)
     {
@@ -221,6 +523,18 @@ final class ZDDTreeLBOT extends ZDDTreeL {
     {
         return ZDD.BOT;
     }
+
+    @Override
+    protected ZDD subtrees(final ZDD f, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheO in, final ZDDCacheO on, final ZDDCacheO pr)
+    {
+        return ZDD.BOT;
+    }
+
+    @Override
+    protected ZDD[] subtrees(final ZDDLimit limit, final int depth, final int nodes, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheI ck)
+    {
+        return graded(limit, ZDD.BOT);
+    }
 }
 
 final class ZDDTreeLTOP extends ZDDTreeL {
@@ -248,6 +562,36 @@ final class ZDDTreeLTOP extends ZDDTreeL {
         return INSTANCE;
     }
 
+    @Override
+    protected void _writeBlock(final DataOutputStream dos, final ZDDMapL dictionary)
+    {
+        // Nothing to write
+    }
+
+    @Override
+    protected void count(final ZDDMapL counts)
+    {
+        // No node to count
+    }
+
+    @Override
+    protected boolean meets(final ZDDMapL nodes)
+    {
+        return false;
+    }
+
+    @Override
+    protected long key()
+    {
+        return 0x5851F42D4C957F2DL;
+    }
+
+    @Override
+    protected ZDDTreeL canonical()
+    {
+        return this;
+    }
+
     @Override
     protected ZDD trees(final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un)
     {
@@ -259,6 +603,18 @@ final class ZDDTreeLTOP extends ZDDTreeL {
     {
         return ZDD.TOP;
     }
+
+    @Override
+    protected ZDD subtrees(final ZDD f, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheO in, final ZDDCacheO on, final ZDDCacheO pr)
+    {
+        return ZDD.topIncluded(f) ? ZDD.TOP : ZDD.BOT;
+    }
+
+    @Override
+    protected ZDD[] subtrees(final ZDDLimit limit, final int depth, final int nodes, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheI ck)
+    {
+        return graded(limit, ZDD.TOP);
+    }
 }
 
 final class ZDDTreeLNode extends ZDDTreeL {
@@ -285,13 +641,62 @@ final class ZDDTreeLNode extends ZDDTreeL {
         t.write(dos);
     }
 
-    static ZDDTreeLNode _read(final DataInputStream dis) throws IOException
+    static ZDDTreeLNode _read(final DataInputStream dis, final int depth) throws IOException
     {
         final long node = dis.readLong();
-        final ZDDTreeL tree = read(dis);
+        final ZDDTreeL tree = read(dis, depth);
         return new ZDDTreeLNode(node, tree);
     }
 
+    @Override
+    protected void _writeBlock(final DataOutputStream dos, final ZDDMapL dictionary) throws IOException
+    {
+        final long index = dictionary.get(h, 0L);
+        ZDDIO.writeVarLong(dos, index);
+        if (index == 0L) {
+            dos.writeLong(h);
+        }
+        t.writeBlock(dos, dictionary);
+    }
+
+    static ZDDTreeLNode _readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+    {
+        final int index = ZDDIO.readVarInt(dis);
+
+        if (index < 0 || index > dictionary.length) {
+            throw new IOException("Corrupt block");
+        }
+
+        final long node = index == 0 ? dis.readLong() : dictionary[index - 1];
+        final ZDDTreeL tree = readBlock(dis, dictionary);
+        return new ZDDTreeLNode(node, tree);
+    }
+
+    @Override
+    protected void count(final ZDDMapL counts)
+    {
+        counts.add(h, 1L);
+        t.count(counts);
+    }
+
+    @Override
+    protected boolean meets(final ZDDMapL nodes)
+    {
+        return nodes.containsKey(h) || t.meets(nodes);
+    }
+
+    @Override
+    protected long key()
+    {
+        return mix(h, t.key());
+    }
+
+    @Override
+    protected ZDDTreeL canonical()
+    {
+        return new ZDDTreeLNode(h, t.canonical());
+    }
+
     @Override
     protected ZDD trees(final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un)
     {
@@ -304,6 +709,41 @@ final class ZDDTreeLNode extends ZDDTreeL {
         return ZDD.union(nod, eq, un, ZDD.TOP, ZDD.crossUnion(nod, eq, cu, un, ZDD.singleton(nod, h), t.subtrees(nod, eq, cu, un)));
     }
 
+    @Override
+    protected ZDD subtrees(final ZDD f, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheO in, final ZDDCacheO on, final ZDDCacheO pr)
+    {
+        if (f == ZDD.BOT) {
+            return ZDD.BOT;
+        }
+
+        // The subtrees holding this node are those of the child, extended with the node : only the part of the filter holding the node is relevant below.
+        final ZDD below = ZDD.onset(nod, on, f, h);
+        final ZDD z = below == ZDD.BOT ? ZDD.BOT : ZDD.crossUnion(nod, eq, cu, un, ZDD.singleton(nod, h), t.subtrees(below, nod, eq, cu, un, in, on, pr));
+
+        return ZDD.topIncluded(f) ? ZDD.union(nod, eq, un, ZDD.TOP, z) : z;
+    }
+
+    @Override
+    protected ZDD[] subtrees(final ZDDLimit limit, final int depth, final int nodes, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheI ck)
+    {
+        final ZDD[] zs = graded(limit, ZDD.TOP);
+
+        if (depth == 0 || nodes == 0 || limit.dimensions == 0) {
+            return zs;
+        }
+
+        final ZDD[] ys = t.subtrees(limit, ZDDLimit.below(depth), ZDDLimit.below(nodes), nod, eq, cu, un, ck);
+        final ZDD singleton = ZDD.singleton(nod, h);
+
+        // The node is a dimension of its own, unless a cross below it brings its own dimensions.
+        for (int j = 0; j < ys.length; ++j) {
+            final int d = Math.min(zs.length - 1, Math.max(1, j));
+            zs[d] = ZDD.union(nod, eq, un, zs[d], ZDD.crossUnion(nod, eq, cu, un, singleton, ys[j]));
+        }
+
+        return zs;
+    }
+
 }
 
 final class ZDDTreeLCross extends ZDDTreeL {
@@ -327,9 +767,50 @@ final class ZDDTreeLCross extends ZDDTreeL {
         writeArray(ts, dos);
     }
 
-    static ZDDTreeLCross _read(final DataInputStream dis) throws IOException
+    static ZDDTreeLCross _read(final DataInputStream dis, final int depth) throws IOException
+    {
+        return new ZDDTreeLCross(readArray(dis, depth));
+    }
+
+    @Override
+    protected void _writeBlock(final DataOutputStream dos, final ZDDMapL dictionary) throws IOException
+    {
+        writeArrayBlock(ts, dos, dictionary);
+    }
+
+    static ZDDTreeLCross _readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+    {
+        return new ZDDTreeLCross(readArrayBlock(dis, dictionary));
+    }
+
+    @Override
+    protected void count(final ZDDMapL counts)
+    {
+        countArray(ts, counts);
+    }
+
+    @Override
+    protected boolean meets(final ZDDMapL nodes)
+    {
+        return meetsArray(ts, nodes);
+    }
+
+    @Override
+    protected long key()
+    {
+        return keyArray(0x14057B7EF767814FL, ts);
+    }
+
+    @Override
+    protected ZDDTreeL canonical()
     {
-        return new ZDDTreeLCross(readArray(dis));
+        return new ZDDTreeLCross(canonicalArray(ts));
+    }
+
+    @Override
+    ZDDTreeL[] factors()
+    {
+        return ts;
     }
 
     @Override
@@ -343,6 +824,57 @@ final class ZDDTreeLCross extends ZDDTreeL {
     {
         return ZDD.crossUnion(nod, eq, cu, un, mapSubtrees(nod, eq, cu, un, ts));
     }
+
+    @Override
+    protected ZDD subtrees(final ZDD f, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheO in, final ZDDCacheO on, final ZDDCacheO pr)
+    {
+        if (f == ZDD.BOT) {
+            return ZDD.BOT;
+        }
+
+        final ZDD[] nodes = mapNodes(nod, eq, cu, un, ts);
+
+        if (nodes == null) {
+            // Overlapping operands : a subtree of one operand may be completed by another, no pruning.
+            return ZDD.intersection(nod, eq, in, f, subtrees(nod, eq, cu, un));
+        }
+
+        // Disjoint operands : each part of a filtered subtree belongs to the projection of the filter on the nodes of its operand.
+        final int n = ts.length;
+        final ZDD[] zdds = new ZDD[n];
+
+        for (int i = 0; i < n; ++i) {
+            zdds[i] = ts[i].subtrees(ZDD.project(nod, eq, un, pr, f, nodes[i]), nod, eq, cu, un, in, on, pr);
+            if (zdds[i] == ZDD.BOT) {
+                return ZDD.BOT;
+            }
+        }
+
+        return ZDD.intersection(nod, eq, in, f, ZDD.crossUnion(nod, eq, cu, un, zdds));
+    }
+
+    @Override
+    protected ZDD[] subtrees(final ZDDLimit limit, final int depth, final int nodes, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheI ck)
+    {
+        ZDD[] zs = graded(limit, ZDD.TOP);
+
+        for (final ZDDTreeL t : ts) {
+
+            final ZDD[] ys = t.subtrees(limit, depth, nodes, nod, eq, cu, un, ck);
+            final ZDD[] xs = graded(limit, ZDD.BOT);
+
+            // Convolve the grades, dropping the subtrees involving too many dimensions.
+            for (int i = 0; i < zs.length; ++i) {
+                for (int j = 0; i + j < xs.length; ++j) {
+                    xs[i + j] = ZDD.union(nod, eq, un, xs[i + j], ZDD.crossUnion(nod, eq, cu, un, ck, zs[i], ys[j], nodes));
+                }
+            }
+
+            zs = xs;
+        }
+
+        return zs;
+    }
 }
 
 final class ZDDTreeLSum extends ZDDTreeL {
@@ -366,9 +898,44 @@ final class ZDDTreeLSum extends ZDDTreeL {
         writeArray(ts, dos);
     }
 
-    static ZDDTreeLSum _read(final DataInputStream dis) throws IOException
+    static ZDDTreeLSum _read(final DataInputStream dis, final int depth) throws IOException
     {
-        return new ZDDTreeLSum(readArray(dis));
+        return new ZDDTreeLSum(readArray(dis, depth));
+    }
+
+    @Override
+    protected void _writeBlock(final DataOutputStream dos, final ZDDMapL dictionary) throws IOException
+    {
+        writeArrayBlock(ts, dos, dictionary);
+    }
+
+    static ZDDTreeLSum _readBlock(final DataInputStream dis, final long[] dictionary) throws IOException
+    {
+        return new ZDDTreeLSum(readArrayBlock(dis, dictionary));
+    }
+
+    @Override
+    protected void count(final ZDDMapL counts)
+    {
+        countArray(ts, counts);
+    }
+
+    @Override
+    protected boolean meets(final ZDDMapL nodes)
+    {
+        return meetsArray(ts, nodes);
+    }
+
+    @Override
+    protected long key()
+    {
+        return keyArray(0x61C8864680B583EBL, ts);
+    }
+
+    @Override
+    protected ZDDTreeL canonical()
+    {
+        return new ZDDTreeLSum(canonicalArray(ts));
     }
 
     @Override
@@ -382,4 +949,38 @@ final class ZDDTreeLSum extends ZDDTreeL {
     {
         return ZDD.union(nod, eq, un, mapSubtrees(nod, eq, cu, un, ts));
     }
+
+    @Override
+    protected ZDD subtrees(final ZDD f, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheO in, final ZDDCacheO on, final ZDDCacheO pr)
+    {
+        if (f == ZDD.BOT) {
+            return ZDD.BOT;
+        }
+
+        final int n = ts.length;
+        final ZDD[] zdds = new ZDD[n];
+
+        for (int i = 0; i < n; ++i) {
+            zdds[i] = ts[i].subtrees(f, nod, eq, cu, un, in, on, pr);
+        }
+
+        return ZDD.union(nod, eq, un, zdds);
+    }
+
+    @Override
+    protected ZDD[] subtrees(final ZDDLimit limit, final int depth, final int nodes, final ZDDCacheN nod, final ZDDCacheP eq, final ZDDCacheO cu, final ZDDCacheO un, final ZDDCacheI ck)
+    {
+        final ZDD[] zs = graded(limit, ZDD.BOT);
+
+        for (final ZDDTreeL t : ts) {
+
+            final ZDD[] ys = t.subtrees(limit, depth, nodes, nod, eq, cu, un, ck);
+
+            for (int i = 0; i < zs.length; ++i) {
+                zs[i] = ZDD.union(nod, eq, un, zs[i], ys[i]);
+            }
+        }
+
+        return zs;
+    }
 }
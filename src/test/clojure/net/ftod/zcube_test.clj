@@ -16,6 +16,17 @@
       ( = 10 ( ( z/count-trees ( z/path "a" "b" "d" ) ) zn ) )
     ) ) ) )
 
+( deftest test-count-all-trees-1 ; Linear trees example, batched counts
+  ( let [ zn ( z/sum-subtrees
+             [ ( z/times  5 ( z/path "a" "b" "c" ) )
+             , ( z/times 10 ( z/path "a" "b" "d" ) )
+             ] )
+        , ts [ ( z/path "a" ) ( z/path "a" "b" ) ( z/path "a" "b" "c" ) ( z/path "a" "b" "d" ) ( z/path "a" "c" ) ] ]
+    ( is ( = [ 15 15 5 10 0 ] ( ( z/count-all-trees ts ) zn ) ) )
+    ( is ( = [ 15 15 5 10 0 ] ( ( z/p-count-all-trees ts ) zn ) ) )
+    ( is ( = [ 15 15 5 10 0 ] ( map #( ( z/count-tree % ) zn ) ts ) ) )
+  ) )
+
 ( deftest test-p-sum-group-by-1 ; Linear trees example
   ( is
     ( =
@@ -0,0 +1,1052 @@
+package net.ftod.zcube;
+
+import static net.ftod.zcube.zdd.ZDDTree.cross;
+import static net.ftod.zcube.zdd.ZDDTree.path;
+import static net.ftod.zcube.zdd.ZDDTree.sum;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.ftod.zcube.zdd.ZDD;
+import net.ftod.zcube.zdd.ZDDClient;
+import net.ftod.zcube.zdd.ZDDCount;
+import net.ftod.zcube.zdd.ZDDCube;
+import net.ftod.zcube.zdd.ZDDLog;
+import net.ftod.zcube.zdd.ZDDLong;
+import net.ftod.zcube.zdd.ZDDMapL;
+import net.ftod.zcube.zdd.ZDDMemo;
+import net.ftod.zcube.zdd.ZDDNumber;
+import net.ftod.zcube.zdd.ZDDServer;
+import net.ftod.zcube.zdd.ZDDShards;
+import net.ftod.zcube.zdd.ZDDSnapshot;
+import net.ftod.zcube.zdd.ZDDSpill;
+import net.ftod.zcube.zdd.ZDDTerm;
+import net.ftod.zcube.zdd.ZDDTermBlocks;
+import net.ftod.zcube.zdd.ZDDTermDecoder;
+import net.ftod.zcube.zdd.ZDDTermReducer;
+import net.ftod.zcube.zdd.ZDDTermSort;
+import net.ftod.zcube.zdd.ZDDTree;
+
+import org.junit.Test;
+
+/**
+ * <h1>Unit test on {@link ZDDTerm} files</h1>
+ * 
+ * @author Fabien Todescato
+ */
+public class ZDDTermTest {
+
+    private static final int _N = 1024;
+
+    private static final String[] PAGES = { "page1", "page2", "page3" };
+    private static final String[] GENDERS = { "male", "female" };
+
+    static ZDDTree tree(final int i)
+    {
+        return cross( //
+                path("www.company.com", PAGES[i % PAGES.length]) //
+                , path("gender", GENDERS[i % GENDERS.length]) //
+                , sum(path("ymd", "2014", "01", Integer.toString(i % 31)), path("ywd", "2014", Integer.toString(i % 5))) //
+        );
+    }
+
+    static List<ZDDTerm> terms(final int n)
+    {
+        final List<ZDDTerm> terms = new ArrayList<ZDDTerm>(n);
+
+        for (int i = 0; i < n; ++i) {
+            terms.add(ZDDTerm.times(i % 7 - 2, tree(i)));
+        }
+
+        return terms;
+    }
+
+    static byte[] bytes(final ZDDTerm zt) throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+        zt.write(dos);
+        dos.close();
+        return baos.toByteArray();
+    }
+
+    static File temporary() throws IOException
+    {
+        final File file = File.createTempFile("zcube", ".zdd");
+        file.deleteOnExit();
+        return file;
+    }
+
+    static void assertSameCounts(final ZDDNumber expected, final ZDDNumber actual)
+    {
+        for (final ZDDTree t : new ZDDTree[] { path("www.company.com"), path("www.company.com", "page1"), path("gender", "female"),
+                cross(path("gender", "male"), path("ymd", "2014", "01", "3")), cross(path("www.company.com"), path("ywd", "2014", "2")) }) {
+            final ZDD z = ZDDTree.trees(t);
+            assertEquals(t.toString(), ZDDNumber.negabinary(expected, z), ZDDNumber.negabinary(actual, z));
+        }
+    }
+
+    @Test
+    public void blocks() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+
+        final File legacy = temporary();
+        final File plain = temporary();
+        final File deflated = temporary();
+
+        ZDDTerm.write(terms, legacy);
+        ZDDTermBlocks.write(terms, plain, false);
+        ZDDTermBlocks.write(terms, deflated, true);
+
+        assertTrue(plain.length() * 2L < legacy.length());
+        assertTrue(deflated.length() < plain.length());
+
+        for (final File file : new File[] { plain, deflated }) {
+            final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                final Iterator<ZDDTerm> i = ZDDTermBlocks.read(dis);
+
+                for (final ZDDTerm zt : terms) {
+                    assertTrue(i.hasNext());
+                    final ZDDTerm read = i.next();
+                    assertEquals(zt.l, read.l);
+                    assertArrayEquals(bytes(zt), bytes(read));
+                }
+
+                assertFalse(i.hasNext());
+            } finally {
+                dis.close();
+            }
+        }
+
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+
+        assertSameCounts(expected, ZDDTermReducer.sumSubtrees(legacy));
+        assertSameCounts(expected, ZDDTermReducer.sumSubtreesBlocks(plain));
+        assertSameCounts(expected, ZDDTermReducer.sumSubtreesBlocks(deflated));
+
+        // Corrupt lengths and counts fail as I/O errors, before anything is allocated from them.
+
+        final int[][] corrupts = {
+                { 1, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F }, // Negative length
+                { 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0, 4, 4, 0, 0, 0, 0 }, // More terms than bytes
+                { 1, 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0, 0 }, // Stored bytes past the end of the stream
+                { 1, 0, 6, 6, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0 }, // Dictionary larger than the block
+                { 1, 0, 8, 8, 0, 0, 4, 0xFF, 0xFF, 0xFF, 0xFF, 0x07 } // More operands than bytes
+        };
+
+        for (final int[] corrupt : corrupts) {
+            final byte[] bytes = new byte[4 + corrupt.length];
+
+            bytes[0] = 0x5A;
+            bytes[1] = 0x43;
+            bytes[2] = 0x42;
+            bytes[3] = 0x31;
+
+            for (int j = 0; j < corrupt.length; ++j) {
+                bytes[4 + j] = (byte) corrupt[j];
+            }
+
+            final Iterator<ZDDTerm> i = ZDDTermBlocks.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+
+            try {
+                i.hasNext();
+                fail();
+            } catch (final IllegalStateException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    @Test
+    public void decoder() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDTermDecoder decoder = new ZDDTermDecoder();
+
+        for (int i = 0; i < _N; ++i) {
+            final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes(terms.get(i))));
+            assertEquals(terms.get(i).l, dis.readLong());
+            assertTrue(ZDD.equals(ZDDTree.subtrees(tree(i)), decoder.subtrees(dis)));
+            assertEquals(-1, dis.read());
+        }
+
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+
+        final File legacy = temporary();
+        ZDDTerm.write(terms, legacy);
+
+        final DataInputStream dis = new DataInputStream(new FileInputStream(legacy));
+
+        try {
+            assertSameCounts(expected, ZDDTermDecoder.sumSubtrees(dis));
+        } finally {
+            dis.close();
+        }
+    }
+
+    static List<ZDDTerm> read(final File file) throws IOException
+    {
+        final List<ZDDTerm> terms = new ArrayList<ZDDTerm>();
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            final Iterator<ZDDTerm> i = ZDDTerm.iterator(dis);
+            while (i.hasNext()) {
+                terms.add(i.next());
+            }
+        } finally {
+            dis.close();
+        }
+
+        return terms;
+    }
+
+    @Test
+    public void sort() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+
+        final File in = temporary();
+        ZDDTerm.write(terms, in);
+
+        // The smallest budget spills more runs than are merged at once.
+
+        for (final long memory : new long[] { ZDDTermSort.MEMORY, 4096L, 512L }) {
+
+            {
+                final File out = temporary();
+                ZDDTermSort.sort(in, out, memory, false);
+
+                final List<ZDDTerm> sorted = read(out);
+                assertEquals(terms.size(), sorted.size());
+                assertSameCounts(expected, ZDDNumber.sumSubtrees(sorted));
+
+                // Equal trees are contiguous.
+                final Set<String> seen = new HashSet<String>();
+                String last = null;
+                for (final ZDDTerm zt : sorted) {
+                    final byte[] bytes = bytes(zt);
+                    final String tree = Arrays.toString(Arrays.copyOfRange(bytes, 8, bytes.length));
+                    if (!tree.equals(last)) {
+                        assertTrue(seen.add(tree));
+                        last = tree;
+                    }
+                }
+            }
+
+            {
+                final File out = temporary();
+                ZDDTermSort.sort(in, out, memory, true);
+
+                final List<ZDDTerm> combined = read(out);
+                assertTrue(combined.size() < terms.size());
+                assertSameCounts(expected, ZDDNumber.sumSubtrees(combined));
+            }
+        }
+
+        // A file cut within its last term fails, rather than sorting the terms before the cut.
+
+        final byte[] bytes = Files.readAllBytes(in.toPath());
+        final File cut = temporary();
+        final FileOutputStream fos = new FileOutputStream(cut);
+
+        try {
+            fos.write(bytes, 0, bytes.length - 3);
+        } finally {
+            fos.close();
+        }
+
+        try {
+            ZDDTermSort.sort(cut, temporary(), false);
+            fail();
+        } catch (final IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void filter()
+    {
+        final List<ZDDTerm> terms = terms(_N);
+
+        for (int i = 0; i < _N; ++i) {
+            terms.add(ZDDTerm.times(i % 3 + 1, cross(path("os", "linux"), path("browser", "firefox", Integer.toString(i % 9)))));
+        }
+
+        final ZDDTree[] groups = { path("www.company.com", "page1"), cross(path("gender", "male"), path("ymd", "2014", "01", "3")), path("browser", "chrome") };
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+
+        for (final ZDD filter : new ZDD[] { ZDDTree.unionTrees(groups), ZDDTree.unionTrees(ZDDTree.TOP, path("os")) }) {
+
+            final ZDDNumber sum = ZDDNumber.sumSubtrees(filter, terms);
+            final ZDDNumber pSum = ZDDNumber.pSumSubtrees(filter, terms);
+
+            for (final ZDDTree t : new ZDDTree[] { groups[0], groups[1], groups[2], ZDDTree.TOP, path("os") }) {
+                final ZDD z = ZDDTree.trees(t);
+                final long count = ZDD.included(z, filter) ? ZDDNumber.negabinary(expected, z) : 0L;
+                assertEquals(count, ZDDNumber.negabinary(sum, z));
+                assertEquals(count, ZDDNumber.negabinary(pSum, z));
+            }
+        }
+    }
+
+    @Test
+    public void batchCounts()
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+        final ZDDTree[] ts = { path("www.company.com"), path("www.company.com", "page1"), path("gender", "female"), cross(path("gender", "male"), path("ymd", "2014", "01", "3")),
+                cross(path("www.company.com"), path("ywd", "2014", "2")), path("unknown"), ZDDTree.TOP };
+        final ZDD[] zs = new ZDD[ts.length];
+
+        for (int j = 0; j < ts.length; ++j) {
+            zs[j] = ZDDTree.trees(ts[j]);
+        }
+
+        final long[] counts = ZDDNumber.negabinary(zn, zs);
+
+        for (int j = 0; j < ts.length; ++j) {
+            assertEquals(ZDDNumber.negabinary(zn, zs[j]), counts[j]);
+        }
+
+        assertArrayEquals(counts, ZDDNumber.pNegabinary(zn, zs));
+        assertArrayEquals(counts, ZDDNumber.negabinary(zn, ts));
+        assertArrayEquals(counts, ZDDNumber.pNegabinary(zn, ts));
+        assertArrayEquals(new long[ts.length], ZDDNumber.pNegabinary(ZDDNumber.ZERO, zs));
+
+        for (int j = 0; j < ts.length; ++j) {
+            final long[] set = ZDDTree.set(ts[j]);
+            assertEquals(counts[j], ZDDNumber.negabinary(zn, set));
+            assertEquals(ZDDNumber.binary(ZDDNumber.binary(12345L, zs[j]), zs[j]), ZDDNumber.binary(ZDDNumber.binary(12345L, zs[j]), set));
+        }
+    }
+
+    @Test
+    public void marginals()
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+
+        {
+            final ZDDMapL marginals = ZDDNumber.marginals(zn);
+            final ZDDTree[] roots = { path("www.company.com"), path("gender"), path("ymd"), path("ywd") };
+
+            assertEquals(roots.length, marginals.size());
+
+            for (final ZDDTree root : roots) {
+                final long[] set = ZDDTree.set(root);
+                assertEquals(ZDDNumber.negabinary(zn, set), marginals.get(set[0], 0L));
+            }
+        }
+
+        {
+            final long[] gender = ZDDTree.set(path("gender"));
+            final ZDDMapL marginals = ZDDNumber.marginals(zn, gender);
+            final ZDDTree[] children = { path("gender", "male"), path("gender", "female"), cross(path("gender"), path("ymd")), cross(path("gender"), path("www.company.com")) };
+
+            assertEquals(5, marginals.size());
+
+            for (final ZDDTree child : children) {
+                final long[] set = ZDDTree.set(child);
+                long x = 0L;
+                for (final long l : set) {
+                    if (l != gender[0]) {
+                        x = l;
+                    }
+                }
+                assertEquals(ZDDNumber.negabinary(zn, set), marginals.get(x, 0L));
+            }
+        }
+    }
+
+    @Test
+    public void heaviest()
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+
+        for (final ZDD filter : new ZDD[] { null, ZDDTree.unionTrees(path("gender", "female"), path("www.company.com", "page2"), cross(path("gender"), path("ymd"))) }) {
+
+            final List<ZDDCount> heaviest = filter == null ? ZDDNumber.heaviest(zn, 16) : ZDDNumber.heaviest(zn, filter, 16);
+
+            assertEquals(filter == null ? 16 : 3, heaviest.size());
+
+            long last = Long.MAX_VALUE;
+
+            for (final ZDDCount c : heaviest) {
+                assertTrue(c.count <= last);
+                assertEquals(ZDDNumber.negabinary(zn, c.set), c.count);
+                if (filter != null) {
+                    assertTrue(ZDD.member(filter, c.set));
+                }
+                last = c.count;
+            }
+
+            // Nothing heavier was missed.
+            final List<ZDDCount> all = filter == null ? ZDDNumber.heaviest(zn, Integer.MAX_VALUE) : ZDDNumber.heaviest(zn, filter, Integer.MAX_VALUE);
+            for (int i = 0; i < heaviest.size(); ++i) {
+                assertEquals(all.get(i).count, heaviest.get(i).count);
+            }
+            for (int i = 1; i < all.size(); ++i) {
+                assertTrue(all.get(i).count <= all.get(i - 1).count);
+            }
+            if (filter == null) {
+                assertEquals(ZDD.size(ZDDNumber.support(zn)), all.size());
+            }
+        }
+    }
+
+    @Test
+    public void comparisons()
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+        final List<ZDDCount> all = ZDDNumber.heaviest(zn, Integer.MAX_VALUE);
+
+        assertEquals(all.size(), ZDD.size(ZDDNumber.support(zn)));
+
+        for (final long l : new long[] { -100L, -3L, -1L, 0L, 1L, 2L, 5L, 100L, all.get(0).count }) {
+
+            final ZDD gt = ZDDNumber.greaterThan(zn, l);
+            final ZDD lt = ZDDNumber.lessThan(zn, l);
+            final ZDD eq = ZDDNumber.equalTo(zn, l);
+            final ZDD ne = ZDDNumber.notEqualTo(zn, l);
+            final ZDD ge = ZDDNumber.greaterOrEqual(zn, l);
+            final ZDD le = ZDDNumber.lessOrEqual(zn, l);
+
+            for (final ZDDCount c : all) {
+                assertEquals(c.count > l, ZDD.member(gt, c.set));
+                assertEquals(c.count < l, ZDD.member(lt, c.set));
+                assertEquals(c.count == l, ZDD.member(eq, c.set));
+                assertEquals(c.count != l, ZDD.member(ne, c.set));
+                assertEquals(c.count >= l, ZDD.member(ge, c.set));
+                assertEquals(c.count <= l, ZDD.member(le, c.set));
+            }
+        }
+    }
+
+    @Test
+    public void arithmetic()
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+        final List<ZDDCount> all = ZDDNumber.heaviest(zn, Integer.MAX_VALUE);
+
+        assertEquals(ZDDNumber.ZERO, ZDDNumber.negabinaryAdd(zn, ZDDNumber.negate(zn)));
+        assertEquals(ZDDNumber.ZERO, ZDDNumber.multiply(zn, 0L));
+
+        for (final long l : new long[] { -7L, -2L, -1L, 1L, 2L, 3L, 8L, 1000L }) {
+
+            final ZDDNumber product = ZDDNumber.multiply(zn, l);
+            final ZDDNumber quotient = ZDDNumber.divide(zn, l);
+
+            for (final ZDDCount c : all) {
+                assertEquals(c.count * l, ZDDNumber.negabinary(product, c.set));
+                assertEquals(c.count / l, ZDDNumber.negabinary(quotient, c.set));
+            }
+        }
+
+        final ZDDNumber decayed = ZDDNumber.divide(ZDDNumber.multiply(zn, 3L), 4L);
+
+        for (final ZDDCount c : all) {
+            assertEquals(c.count * 3L / 4L, ZDDNumber.negabinary(decayed, c.set));
+        }
+    }
+
+    @Test
+    public void product()
+    {
+        final ZDDNumber zn1 = ZDDNumber.sumSubtrees(terms(16));
+        final ZDDNumber zn2 = ZDDNumber.sumSubtrees(Arrays.asList(ZDDTerm.times(3, path("device", "mobile")), ZDDTerm.times(-2, sum(path("device", "desktop"), path("gender", "male")))));
+        final Map<Set<Long>, Long> expected = new HashMap<Set<Long>, Long>();
+
+        for (final ZDDCount c1 : ZDDNumber.heaviest(zn1, Integer.MAX_VALUE)) {
+            for (final ZDDCount c2 : ZDDNumber.heaviest(zn2, Integer.MAX_VALUE)) {
+                final Set<Long> union = new TreeSet<Long>();
+                for (final long x : c1.set) {
+                    union.add(x);
+                }
+                for (final long x : c2.set) {
+                    union.add(x);
+                }
+                final Long l = expected.get(union);
+                expected.put(union, (l == null ? 0L : l) + c1.count * c2.count);
+            }
+        }
+
+        final ZDDNumber product = ZDDNumber.multiply(zn1, zn2);
+
+        for (final Map.Entry<Set<Long>, Long> e : expected.entrySet()) {
+            final long[] set = new long[e.getKey().size()];
+            int i = 0;
+            for (final long x : e.getKey()) {
+                set[i++] = x;
+            }
+            assertEquals(e.getValue().longValue(), ZDDNumber.negabinary(product, set));
+        }
+
+        int nonZero = 0;
+        for (final Long l : expected.values()) {
+            if (l != 0L) {
+                ++nonZero;
+            }
+        }
+        assertEquals(nonZero, ZDDNumber.heaviest(product, Integer.MAX_VALUE).size());
+        assertEquals(ZDDNumber.ZERO, ZDDNumber.multiply(zn1, ZDDNumber.ZERO));
+    }
+
+    @Test
+    public void multiTerminal()
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+        final List<ZDDCount> all = ZDDNumber.heaviest(zn, Integer.MAX_VALUE);
+        final ZDDLong z = ZDDLong.zddLong(zn);
+        final ZDDLong twice = ZDDLong.add(z, z);
+        final ZDDNumber back = ZDDLong.zddNumber(z);
+
+        for (final ZDDCount c : all) {
+            assertEquals(c.count, ZDDLong.count(z, c.set));
+            assertEquals(2L * c.count, ZDDLong.count(twice, c.set));
+            assertEquals(c.count, ZDDNumber.negabinary(back, c.set));
+        }
+
+        assertEquals(ZDDLong.ZERO, ZDDLong.subtract(z, z));
+        assertEquals(0L, ZDDLong.count(z, new long[] { -1L }));
+
+        final ZDD female = ZDDTree.trees(path("gender", "female"));
+        final ZDDLong filtered = ZDDLong.filter(z, female);
+
+        assertEquals(ZDDNumber.negabinary(zn, female), ZDDLong.count(z, female));
+        assertEquals(ZDDNumber.negabinary(zn, female), ZDDLong.count(filtered, female));
+        assertTrue(ZDDLong.nodes(filtered) <= ZDDLong.nodes(z));
+        assertTrue(ZDDLong.nodes(z) < ZDDNumber.nodes(zn));
+    }
+
+    @Test
+    public void binaryAccumulation()
+    {
+        final List<ZDDTerm> terms = new ArrayList<ZDDTerm>();
+
+        for (int i = 0; i < _N; ++i) {
+            terms.add(ZDDTerm.times(i == _N / 2 ? -5L : i % 7, tree(i)));
+        }
+
+        ZDDNumber prefix = ZDDNumber.ZERO;
+        ZDDNumber expected = ZDDNumber.ZERO;
+
+        for (int i = 0; i < _N; ++i) {
+            expected = ZDDNumber.negabinaryAdd(expected, ZDDTerm.subtrees(terms.get(i)));
+            if (i < _N / 2) {
+                prefix = expected;
+            }
+        }
+
+        assertSameCounts(prefix, ZDDNumber.sumSubtrees(terms.subList(0, _N / 2)));
+        assertSameCounts(expected, ZDDNumber.sumSubtrees(terms));
+
+        for (final long l : new long[] { 0L, 1L, 2L, 3L, 6L, 1000L, Long.MAX_VALUE }) {
+            assertEquals(l, ZDDNumber.negabinary(ZDDNumber.negabinary(ZDDNumber.binary(l, ZDD.TOP)), ZDD.TOP));
+        }
+    }
+
+    @Test
+    public void parallelDigits()
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber zn1 = ZDDNumber.sumSubtrees(terms.subList(0, _N / 2));
+        final ZDDNumber zn2 = ZDDNumber.sumSubtrees(terms.subList(_N / 2, _N));
+
+        assertSameCounts(ZDDNumber.negabinaryAdd(zn1, zn2), ZDDNumber.pNegabinaryAdd(zn1, zn2));
+        assertSameCounts(ZDDNumber.negabinarySub(zn1, zn2), ZDDNumber.pNegabinarySub(zn1, zn2));
+        assertEquals(ZDDNumber.ZERO, ZDDNumber.pNegabinarySub(zn1, zn1));
+        assertEquals(ZDDNumber.ZERO, ZDDNumber.pNegabinaryAdd(ZDDNumber.ZERO, ZDDNumber.ZERO));
+    }
+
+    @Test
+    public void cube() throws InterruptedException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDCube cube = new ZDDCube(5L, TimeUnit.MILLISECONDS);
+        final Thread[] writers = new Thread[4];
+
+        assertEquals(ZDDNumber.ZERO, cube.snapshot());
+
+        for (int w = 0; w < writers.length; ++w) {
+            final List<ZDDTerm> slice = terms.subList(w * _N / writers.length, (w + 1) * _N / writers.length);
+            writers[w] = new Thread() {
+                @Override
+                public void run()
+                {
+                    cube.add(slice);
+                }
+            };
+            writers[w].start();
+        }
+
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+
+        // An interrupted publication keeps the interrupt, and loses no term.
+
+        Thread.currentThread().interrupt();
+
+        try {
+            cube.publish();
+            fail();
+        } catch (final RuntimeException e) {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertSameCounts(ZDDNumber.sumSubtrees(terms), cube.close());
+        assertSameCounts(ZDDNumber.sumSubtrees(terms), cube.snapshot());
+    }
+
+    @Test
+    public void server() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+        final ZDDTree[] ts = { path("www.company.com"), path("gender", "female"), cross(path("gender", "male"), path("ymd", "2014", "01", "3")) };
+        final ZDDCube cube = new ZDDCube();
+        final ZDDServer server = new ZDDServer(cube, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+
+        try {
+            final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+            final ZDDClient client = new ZDDClient(address);
+
+            try {
+                client.add(terms);
+                assertEquals(ZDD.size(ZDDNumber.support(expected)), client.publish());
+
+                final long[] counts = client.count(ts);
+
+                for (int i = 0; i < ts.length; ++i) {
+                    final long count = ZDDNumber.negabinary(expected, ZDDTree.trees(ts[i]));
+                    assertEquals(count, counts[i]);
+                    assertEquals(count, client.count(ts[i]));
+                }
+            } finally {
+                client.close();
+            }
+
+            // Pipelined requests whose replies overflow the output buffer many times over.
+
+            final Socket socket = new Socket(address.getAddress(), address.getPort());
+
+            try {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final DataOutputStream dos = new DataOutputStream(baos);
+
+                for (int i = 0; i < 256; ++i) {
+                    dos.writeByte(ZDDServer.COUNT);
+                    ZDDTree.write(ts[i % ts.length], dos);
+                }
+
+                socket.getOutputStream().write(baos.toByteArray());
+
+                final DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                for (int i = 0; i < 256; ++i) {
+                    assertEquals(ZDDNumber.negabinary(expected, ZDDTree.trees(ts[i % ts.length])), dis.readLong());
+                }
+            } finally {
+                socket.close();
+            }
+
+            // A count of trees larger than any request closes the connection, before allocating, and the server keeps serving.
+
+            final Socket hostile = new Socket(address.getAddress(), address.getPort());
+
+            try {
+                final DataOutputStream dos = new DataOutputStream(hostile.getOutputStream());
+                dos.writeByte(ZDDServer.COUNTS);
+                dos.writeInt(Integer.MAX_VALUE);
+                dos.flush();
+                assertEquals(-1, hostile.getInputStream().read());
+            } finally {
+                hostile.close();
+            }
+
+            final ZDDClient again = new ZDDClient(address);
+
+            try {
+                assertEquals(ZDDNumber.negabinary(expected, ZDDTree.trees(ts[0])), again.count(ts[0]));
+            } finally {
+                again.close();
+            }
+        } finally {
+            server.close();
+        }
+
+        // A tree nested deeper than the stack allows, within the default buffer, closes its connection only.
+
+        final ZDDServer deep = new ZDDServer(cube, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        try {
+            final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), deep.port());
+            final Socket hostile = new Socket(address.getAddress(), address.getPort());
+
+            try {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final DataOutputStream dos = new DataOutputStream(baos);
+
+                dos.writeByte(ZDDServer.COUNT);
+
+                // Thirty thousand sums of one operand each, around the empty tree, as the bytes of the serialized form.
+
+                for (int i = 0; i < 30000; ++i) {
+                    dos.writeByte(4);
+                    dos.writeByte(1);
+                }
+
+                dos.writeByte(0);
+
+                hostile.getOutputStream().write(baos.toByteArray());
+                hostile.getOutputStream().flush();
+                assertEquals(-1, hostile.getInputStream().read());
+            } finally {
+                hostile.close();
+            }
+
+            final ZDDClient again = new ZDDClient(address);
+
+            try {
+                assertEquals(ZDDNumber.negabinary(expected, ZDDTree.trees(ts[0])), again.count(ts[0]));
+            } finally {
+                again.close();
+            }
+        } finally {
+            deep.close();
+        }
+    }
+
+    @Test
+    public void log() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final File directory = temporary();
+
+        directory.delete();
+
+        final ZDDLog log = new ZDDLog(directory, 16384L, 2L);
+        long sequence = 0L;
+        long segment = 0L;
+
+        for (int i = 0; i < _N; ++i) {
+            sequence = log.append(terms.get(i));
+            if (i == _N / 2) {
+                segment = log.roll();
+            }
+        }
+
+        log.sync(sequence);
+        log.close();
+
+        // A torn write at the end of the last segment is ignored.
+
+        final String[] names = directory.list();
+
+        Arrays.sort(names);
+
+        final FileOutputStream fos = new FileOutputStream(new File(directory, names[names.length - 1]), true);
+        fos.write(new byte[] { 0, 0, 1, 0, 42 });
+        fos.close();
+
+        final ZDDCube all = new ZDDCube();
+        assertEquals(_N, ZDDLog.recover(directory, 0L, all));
+        assertSameCounts(ZDDNumber.sumSubtrees(terms), all.close());
+
+        log.release(segment);
+
+        final ZDDCube tail = new ZDDCube();
+        assertEquals(_N - _N / 2 - 1, ZDDLog.recover(directory, segment, tail));
+        assertSameCounts(ZDDNumber.sumSubtrees(terms.subList(_N / 2 + 1, _N)), tail.close());
+
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void logCheckpoint() throws IOException, InterruptedException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final File directory = temporary();
+        final File snapshot = temporary();
+
+        directory.delete();
+
+        final ZDDLog log = new ZDDLog(directory, 16384L, 2L);
+        final ZDDCube cube = new ZDDCube();
+        final Thread[] writers = new Thread[4];
+        final CountDownLatch halfway = new CountDownLatch(writers.length);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final List<ZDDTerm> firstHalves = new ArrayList<ZDDTerm>();
+
+        for (int w = 0; w < writers.length; ++w) {
+            final List<ZDDTerm> slice = terms.subList(w * _N / writers.length, (w + 1) * _N / writers.length);
+            firstHalves.addAll(slice.subList(0, slice.size() / 2));
+            writers[w] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < slice.size(); ++i) {
+                            if (i == slice.size() / 2) {
+                                halfway.countDown();
+                                resume.await();
+                            }
+                            log.add(slice.get(i), cube);
+                        }
+                    } catch (final IOException e) {
+                        throw new RuntimeException(e);
+                    } catch (final InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            writers[w].start();
+        }
+
+        // A checkpoint with every writer halfway through its slice covers exactly the first halves, the second halves being logged after its mark.
+
+        halfway.await();
+
+        final long first = log.checkpoint(cube, snapshot);
+        final ZDDSnapshot halfSnapshot = ZDDSnapshot.open(snapshot);
+
+        try {
+            assertEquals(first, halfSnapshot.mark());
+            assertSameCounts(ZDDNumber.sumSubtrees(firstHalves), halfSnapshot.number());
+        } finally {
+            halfSnapshot.close();
+        }
+
+        // More checkpoints while the writers go on.
+
+        resume.countDown();
+
+        for (int i = 0; i < 4; ++i) {
+            log.checkpoint(cube, snapshot);
+        }
+
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+
+        log.sync();
+        log.close();
+
+        final ZDDSnapshot s = ZDDSnapshot.open(snapshot);
+
+        try {
+            final ZDDCube recovered = new ZDDCube(s.number(), 0L, TimeUnit.MILLISECONDS);
+            ZDDLog.recover(directory, s.mark(), recovered);
+            assertSameCounts(ZDDNumber.sumSubtrees(terms), recovered.close());
+        } finally {
+            s.close();
+        }
+
+        for (final File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        snapshot.delete();
+    }
+
+    @Test
+    public void snapshot() throws IOException
+    {
+        final ZDDNumber zn = ZDDNumber.sumSubtrees(terms(_N));
+        final List<ZDDCount> all = ZDDNumber.heaviest(zn, Integer.MAX_VALUE);
+        final File file = temporary();
+
+        ZDDSnapshot.write(zn, 42L, file);
+
+        final ZDDSnapshot snapshot = ZDDSnapshot.open(file);
+
+        try {
+            assertEquals(42L, snapshot.mark());
+            assertEquals(ZDDNumber.nodes(zn), snapshot.nodes());
+
+            for (final ZDDCount c : all) {
+                assertEquals(c.count, snapshot.count(c.set));
+            }
+
+            assertEquals(0L, snapshot.count(new long[] { -1L }));
+
+            final ZDDCube cube = new ZDDCube(snapshot.number(), 0L, TimeUnit.MILLISECONDS);
+
+            cube.add(terms(_N));
+
+            final ZDDNumber twice = cube.close();
+
+            for (final ZDDCount c : all) {
+                assertEquals(2L * c.count, ZDDNumber.negabinary(twice, c.set));
+            }
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void checkpoints() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+        final File file = temporary();
+        final File half = temporary();
+        final File checkpoint = temporary();
+
+        ZDDTerm.write(terms, file);
+        ZDDTerm.write(terms.subList(0, _N / 2), half);
+
+        checkpoint.delete();
+        assertSameCounts(expected, ZDDTermReducer.sumSubtrees(file, checkpoint, 4096L));
+
+        // A reduction interrupted after the first half resumes from its checkpoint.
+
+        checkpoint.delete();
+        assertSameCounts(ZDDNumber.sumSubtrees(terms.subList(0, _N / 2)), ZDDTermReducer.sumSubtrees(half, checkpoint, 4096L));
+        assertEquals(half.length(), mark(checkpoint));
+        assertSameCounts(expected, ZDDTermReducer.resume(file, checkpoint, 4096L));
+        assertEquals(file.length(), mark(checkpoint));
+        checkpoint.delete();
+    }
+
+    @Test
+    public void memo() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+        final ZDDMemo memo = new ZDDMemo();
+
+        assertSameCounts(expected, memo.sumSubtrees(terms));
+        assertTrue(memo.size() > 0);
+
+        final File file = temporary();
+
+        memo.save(file);
+
+        final ZDDMemo loaded = ZDDMemo.load(file);
+
+        assertEquals(memo.size(), loaded.size());
+        assertSameCounts(expected, loaded.sumSubtrees(terms));
+        assertEquals(memo.size(), loaded.size());
+
+        // A memo too small for the workload evicts, and still sums right.
+
+        final ZDDMemo small = ZDDMemo.load(file, 2);
+
+        assertEquals(2, small.size());
+        assertSameCounts(expected, small.sumSubtrees(terms));
+        file.delete();
+    }
+
+    @Test
+    public void spill() throws IOException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+        final File directory = temporary();
+
+        directory.delete();
+        directory.mkdirs();
+
+        // A budget far below the sum spills many times, and merges in several rounds.
+
+        assertSameCounts(expected, ZDDSpill.sumSubtrees(64L, directory, 16, 3, terms.iterator()));
+        assertEquals(0, directory.listFiles().length);
+
+        // A budget above the sum never spills.
+
+        assertSameCounts(expected, ZDDSpill.sumSubtrees(Long.MAX_VALUE, directory, terms));
+        assertEquals(0, directory.listFiles().length);
+
+        directory.delete();
+    }
+
+    @Test
+    public void shards() throws InterruptedException
+    {
+        final List<ZDDTerm> terms = terms(_N);
+        final ZDDNumber expected = ZDDNumber.sumSubtrees(terms);
+        final ZDDShards shards = new ZDDShards(5);
+        final Thread[] writers = new Thread[4];
+
+        for (int w = 0; w < writers.length; ++w) {
+            final List<ZDDTerm> slice = terms.subList(w * _N / writers.length, (w + 1) * _N / writers.length);
+            writers[w] = new Thread() {
+                @Override
+                public void run()
+                {
+                    shards.add(slice);
+                }
+            };
+            writers[w].start();
+        }
+
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+
+        for (final ZDDCount c : ZDDNumber.heaviest(expected, Integer.MAX_VALUE)) {
+            assertEquals(c.count, shards.count(c.set));
+        }
+
+        for (final ZDDTree t : new ZDDTree[] { path("www.company.com", "page1"), cross(path("gender", "male"), path("ymd", "2014", "01", "3")),
+                sum(path("gender", "female"), path("ywd", "2014", "2")), sum(path("www.company.com"), path("nowhere")) }) {
+            assertEquals(t.toString(), ZDDNumber.negabinary(expected, ZDDTree.trees(t)), shards.count(t));
+        }
+
+        int used = 0;
+
+        for (int k = 0; k < shards.shards(); ++k) {
+            if (shards.shard(k) != ZDDNumber.ZERO) {
+                ++used;
+            }
+        }
+
+        assertTrue(used > 1);
+        assertSameCounts(expected, shards.number());
+    }
+
+    static long mark(final File checkpoint) throws IOException
+    {
+        final ZDDSnapshot snapshot = ZDDSnapshot.open(checkpoint);
+
+        try {
+            return snapshot.mark();
+        } finally {
+            snapshot.close();
+        }
+    }
+}
@@ -7,13 +7,17 @@ import static net.ftod.zcube.zdd.ZDDTree.path;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import net.ftod.zcube.zdd.ZDD;
 import net.ftod.zcube.zdd.ZDDContext;
+import net.ftod.zcube.zdd.ZDDLimit;
 import net.ftod.zcube.zdd.ZDDNumber;
+import net.ftod.zcube.zdd.ZDDTerm;
 import net.ftod.zcube.zdd.ZDDTree;
 
 import org.junit.Test;
@@ -93,6 +97,72 @@ public class ZDDTest {
         }.eval();
     }
 
+    @Test
+    public void member()
+    {
+        new ZDDContextTest() {
+            @SuppressWarnings("hiding")
+            @Override
+            protected <Void> Void expression()
+            {
+                final ZDD z = union(set(1L, 3L), set(2L), set(1L, 2L, 4L), TOP);
+
+                assertTrue(ZDD.member(z, new long[] { 1L, 3L }));
+                assertTrue(ZDD.member(z, new long[] { 2L }));
+                assertTrue(ZDD.member(z, new long[] { 1L, 2L, 4L }));
+                assertTrue(ZDD.member(z, new long[] {}));
+                assertFalse(ZDD.member(z, new long[] { 1L }));
+                assertFalse(ZDD.member(z, new long[] { 1L, 2L }));
+                assertFalse(ZDD.member(z, new long[] { 3L }));
+                assertFalse(ZDD.member(z, new long[] { 1L, 2L, 4L, 5L }));
+                assertFalse(ZDD.member(BOT, new long[] {}));
+
+                final ZDDTree t = cross(path("a", "b"), path("c"));
+                assertTrue(equals(trees(t), set(ZDDTree.set(t))));
+
+                try {
+                    ZDDTree.set(ZDDTree.sum(path("a"), path("b")));
+                    fail();
+                } catch (final IllegalArgumentException e) {
+                    // Expected
+                }
+
+                return null;
+            }
+
+        }.eval();
+    }
+
+    @Test
+    public void nodes()
+    {
+        new ZDDContextTest() {
+            @SuppressWarnings("hiding")
+            @Override
+            protected <Void> Void expression()
+            {
+                final ZDD z = set(1L, 2L, 3L);
+
+                assertEquals(0L, ZDD.nodes(BOT, TOP));
+                assertEquals(3L, ZDD.nodes(z));
+                assertEquals(3L, ZDD.nodes(z, z));
+                assertEquals(3L, ZDD.nodes(set(1L, 2L), set(3L)));
+                assertEquals(3L * ZDD.NODE_BYTES, ZDD.bytes(z));
+
+                // 3 is 111 in negabinary : three digits sharing the same nodes.
+
+                final ZDDNumber zn = negabinary(3L, z);
+
+                assertEquals(3L, ZDDNumber.nodes(zn));
+                assertEquals(3L * ZDD.NODE_BYTES + 3L * ZDDNumber.DIGIT_BYTES, ZDDNumber.bytes(zn));
+                assertEquals(0L, ZDDNumber.bytes(ZDDNumber.ZERO));
+
+                return null;
+            }
+
+        }.eval();
+    }
+
     @Test
     public void union()
     {
@@ -285,6 +355,89 @@ public class ZDDTest {
         }.eval();
     }
 
+    @Test
+    public void filteredSubtrees()
+    {
+        new ZDDContextTest() {
+            @SuppressWarnings("hiding")
+            @Override
+            protected <Void> Void expression()
+            {
+                final ZDDTree[] ts = { ZDDTree.TOP, path("a", "b", "c") //
+                        , cross(path("a", "b", "c"), path("a", "b", "d")) //
+                        , cross(path("x", "1"), ZDDTree.sum(path("y", "1"), path("y", "2")), path("z", "1", "2")) //
+                        , ZDDTree.sum(cross(path("x", "1"), path("y", "2")), cross(path("x", "2"), path("z", "1"))) //
+                };
+                final ZDD[] fs = { BOT, TOP, trees(path("a")), trees(path("a", "b", "d")), trees(cross(path("x"), path("y", "2"))) //
+                        , ZDDTree.unionTrees(path("x", "1"), cross(path("y"), path("z", "1")), ZDDTree.TOP, path("q")) //
+                        , subtrees(cross(path("x", "1"), path("y", "2"), path("a", "b"))) //
+                };
+
+                for (final ZDDTree t : ts) {
+                    for (final ZDD f : fs) {
+                        assertTrue(equals(intersection(f, subtrees(t)), ZDDTree.subtrees(f, t)));
+                    }
+                }
+
+                return null;
+            }
+
+        }.eval();
+    }
+
+    @Test
+    public void limitedSubtrees()
+    {
+        final ZDDTree abc = path("a", "b", "c");
+        final ZDDTree xy = path("x", "y");
+        final ZDDTree pq = path("p", "q");
+
+        assertEquals(4L, ZDD.size(ZDDTree.subtrees(ZDDLimit.NONE, abc)));
+        assertEquals(2L, ZDD.size(ZDDTree.subtrees(ZDDLimit.depth(1), abc)));
+        assertEquals(3L, ZDD.size(ZDDTree.subtrees(ZDDLimit.nodes(2), abc)));
+        assertEquals(1L, ZDD.size(ZDDTree.subtrees(ZDDLimit.nodes(0), abc)));
+
+        final ZDDTree cross2 = cross(abc, xy);
+
+        assertEquals(12L, ZDD.size(ZDDTree.subtrees(ZDDLimit.NONE, cross2)));
+        assertEquals(6L, ZDD.size(ZDDTree.subtrees(ZDDLimit.nodes(2), cross2)));
+        assertEquals(4L, ZDD.size(ZDDTree.subtrees(ZDDLimit.depth(1), cross2)));
+        assertEquals(6L, ZDD.size(ZDDTree.subtrees(ZDDLimit.dimensions(1), cross2)));
+        assertEquals(1L, ZDD.size(ZDDTree.subtrees(ZDDLimit.dimensions(0), cross2)));
+        assertEquals(5L, ZDD.size(ZDDTree.subtrees(ZDDLimit.limit(3, 2, 1), cross2)));
+
+        final ZDDTree cross3 = cross(cross(abc, xy), ZDDTree.sum(pq, path("p", "r")));
+
+        assertEquals(48L, ZDD.size(ZDDTree.subtrees(ZDDLimit.NONE, cross3)));
+        assertEquals(48L - 3L * 2L * 3L, ZDD.size(ZDDTree.subtrees(ZDDLimit.dimensions(2), cross3)));
+
+        // A cross nested below a node counts its own operands as dimensions.
+
+        final ZDDTree nested = ZDDTree.prefix("r", cross2);
+
+        assertEquals(13L, ZDD.size(ZDDTree.subtrees(ZDDLimit.NONE, nested)));
+        assertEquals(7L, ZDD.size(ZDDTree.subtrees(ZDDLimit.dimensions(1), nested)));
+        assertEquals(13L, ZDD.size(ZDDTree.subtrees(ZDDLimit.dimensions(2), nested)));
+
+        for (final ZDDLimit limit : new ZDDLimit[] { ZDDLimit.nodes(3), ZDDLimit.depth(2), ZDDLimit.dimensions(2), ZDDLimit.limit(4, 2, 2) }) {
+
+            final ZDD limited = ZDDTree.subtrees(limit, cross3);
+            assertTrue(ZDD.included(limited, ZDDTree.subtrees(cross3)));
+
+            final List<ZDDTerm> terms = Arrays.asList(ZDDTerm.times(3L, cross3), ZDDTerm.times(-1L, cross2), ZDDTerm.times(2L, abc));
+            final ZDDNumber all = ZDDNumber.sumSubtrees(terms);
+            final ZDDNumber sum = ZDDNumber.sumSubtrees(limit, terms);
+            final ZDDNumber pSum = ZDDNumber.pSumSubtrees(limit, terms);
+
+            for (final ZDDTree t : new ZDDTree[] { path("a"), path("a", "b", "c"), cross(path("a", "b"), path("x")), cross(path("a"), path("x"), path("p", "r")) }) {
+                final ZDD z = ZDDTree.trees(t);
+                final long count = ZDD.included(z, limited) ? ZDDNumber.negabinary(all, z) : 0L;
+                assertEquals(count, ZDDNumber.negabinary(sum, z));
+                assertEquals(count, ZDDNumber.negabinary(pSum, z));
+            }
+        }
+    }
+
     @Test
     public void treesBinary()
     {